@@ -0,0 +1,776 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * SharedPreferences persisted in an append-only log instead of an XML file.
+ * A commit appends records for the changed entries only, so its cost depends on the size of the
+ * change and not on the size of the file. The heap holds the position of every value, values are
+ * read from the file when they are requested.
+ * <p>
+ * Every record is {@code [body length][body][CRC32 of the body]}. The body is an operation byte,
+ * followed by the length and UTF-8 bytes of the key and the value bytes for puts. Values that are
+ * canonical Base64, like the ciphertext written by {@link FlutterSecureStorage}, are stored decoded.
+ * Every other type has a put operation of its own: ints, longs and the bits of floats are stored
+ * big-endian, booleans as one byte, and string sets as the number of strings followed by the
+ * length and UTF-8 bytes of each string.
+ * A record that was only partially written is cut off when the log is opened, a damaged record
+ * followed by valid ones is skipped.
+ * <p>
+ * With mapped reads, values are copied out of a read-only memory mapping of the log instead of
+ * being read with a system call each.
+ */
+class AppendLogPreferences implements SharedPreferences {
+
+    private static final String TAG = "AppendLogPreferences";
+    private static final String SYNC_THREAD_NAME = "com.it_nomads.fluttersecurestorage.sync";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte OP_PUT = 1;
+    private static final byte OP_PUT_BASE64 = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_CLEAR = 4;
+    private static final byte OP_PUT_INT = 5;
+    private static final byte OP_PUT_LONG = 6;
+    private static final byte OP_PUT_FLOAT = 7;
+    private static final byte OP_PUT_BOOLEAN = 8;
+    private static final byte OP_PUT_STRING_SET = 9;
+    private static final int HEADER_SIZE = 4;
+    private static final int TRAILER_SIZE = 4;
+    // The log is rewritten once it is larger than this and more than half of it is stale.
+    private static final long COMPACTION_MIN_BYTES = 64 * 1024;
+    // Records appended after the file was mapped are read from the channel until this many bytes are unmapped.
+    private static final long REMAP_MIN_BYTES = 64 * 1024;
+    private static final Map<String, AppendLogPreferences> instances = new HashMap<>();
+    // Runs the fsync of apply() calls, a single thread so that syncs queued in the meantime are batched.
+    private static final ThreadPoolExecutor syncExecutor = new ThreadPoolExecutor(
+            0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            runnable -> new Thread(runnable, SYNC_THREAD_NAME));
+
+    private final File file;
+    // The write lock guards appends and compaction, the read lock guards reads from the file.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object syncLock = new Object();
+    private final Object mappingLock = new Object();
+    private final Map<String, Entry> index = new HashMap<>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private volatile boolean mappedReads;
+    // Guarded by mappingLock, covers the file up to its size at the time it was mapped.
+    private MappedByteBuffer mapping;
+    // End of the last complete record.
+    private long size;
+    // Bytes of the records that still hold a current value.
+    private long liveBytes;
+    private long appendedBatches;
+    // Guarded by syncLock.
+    private long syncedBatches;
+
+    AppendLogPreferences(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * Returns the instance for the given log file, every file is only opened once per process.
+     *
+     * @param mappedReads whether values are read through a memory mapping. Once enabled for a file
+     *                    it stays enabled for every user of the instance.
+     */
+    static AppendLogPreferences open(File file, boolean mappedReads) throws IOException {
+        synchronized (instances) {
+            AppendLogPreferences preferences = instances.get(file.getAbsolutePath());
+            if (preferences == null) {
+                preferences = new AppendLogPreferences(file);
+                instances.put(file.getAbsolutePath(), preferences);
+            }
+            if (mappedReads) {
+                preferences.mappedReads = true;
+            }
+            return preferences;
+        }
+    }
+
+    boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return index.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Set<String> keySet() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(index.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> values = new HashMap<>();
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                values.put(entry.getKey(), readValue(entry.getValue()));
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + file, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        final String value = (String) getValue(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Like SharedPreferences, the typed getters throw a ClassCastException for a value of another type.
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        final Set<String> values = (Set<String>) getValue(key);
+        return values != null ? values : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        final Integer value = (Integer) getValue(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        final Long value = (Long) getValue(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Float value = (Float) getValue(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Boolean value = (Boolean) getValue(key);
+        return value != null ? value : defValue;
+    }
+
+    private Object getValue(String key) {
+        lock.readLock().lock();
+        try {
+            Entry entry = index.get(key);
+            return entry != null ? readValue(entry) : null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + file, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new LogEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Reads {@code target.length} bytes starting at {@code position}. Called with a lock held.
+     */
+    private void read(long position, byte[] target) throws IOException {
+        if (mappedReads) {
+            final ByteBuffer mapped = getMapping(position + target.length);
+            if (mapped != null) {
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) position);
+                view.get(target);
+                return;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(target);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+    }
+
+    /**
+     * Returns a mapping that contains {@code end}, or null if the bytes are read from the channel.
+     * The file is mapped again once enough was appended, not on every append.
+     */
+    private ByteBuffer getMapping(long end) throws IOException {
+        synchronized (mappingLock) {
+            final long mapped = mapping != null ? mapping.capacity() : -1;
+            if (end > mapped && size - mapped >= Math.min(REMAP_MIN_BYTES, size) && size <= Integer.MAX_VALUE) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapping != null && end <= mapping.capacity() ? mapping : null;
+        }
+    }
+
+    private Object readValue(Entry entry) throws IOException {
+        byte[] value = new byte[entry.length];
+        read(entry.position, value);
+        switch (entry.op) {
+            case OP_PUT_BASE64:
+                return Base64.encodeToString(value, Base64.NO_WRAP);
+            case OP_PUT_INT:
+                return ByteBuffer.wrap(value).getInt();
+            case OP_PUT_LONG:
+                return ByteBuffer.wrap(value).getLong();
+            case OP_PUT_FLOAT:
+                return ByteBuffer.wrap(value).getFloat();
+            case OP_PUT_BOOLEAN:
+                return value[0] != 0;
+            case OP_PUT_STRING_SET:
+                final ByteBuffer buffer = ByteBuffer.wrap(value);
+                final int count = buffer.getInt();
+                final Set<String> strings = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    final byte[] string = new byte[buffer.getInt()];
+                    buffer.get(string);
+                    strings.add(new String(string, UTF_8));
+                }
+                return strings;
+            default:
+                return new String(value, UTF_8);
+        }
+    }
+
+    private void open() throws IOException {
+        final File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        index.clear();
+        liveBytes = 0;
+        size = 0;
+
+        final long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Log too large: " + file);
+        }
+        final byte[] log = new byte[(int) length];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            in.readFully(log);
+        } finally {
+            in.close();
+        }
+        int position = 0;
+        while (position < log.length) {
+            final int recordSize = getRecordSize(log, position);
+            if (recordSize > 0) {
+                applyRecord(log, position + HEADER_SIZE, recordSize - HEADER_SIZE - TRAILER_SIZE, position);
+                position += recordSize;
+                size = position;
+                continue;
+            }
+            // Only the last record can be torn by a crash, a damaged record before a valid one is skipped.
+            final int next = findRecord(log, position + 1);
+            if (next < 0) {
+                break;
+            }
+            Log.e(TAG, "Skipping " + (next - position) + " corrupt bytes at " + position + " in " + file);
+            position = next;
+        }
+        if (size < length) {
+            Log.w(TAG, "Dropping " + (length - size) + " bytes of an incomplete record in " + file);
+            channel.truncate(size);
+        }
+        synchronized (mappingLock) {
+            mapping = null;
+        }
+    }
+
+    /**
+     * Returns the size of the valid record at the given position, or 0 if there is none.
+     */
+    private static int getRecordSize(byte[] log, int position) {
+        if (position + HEADER_SIZE + 1 + TRAILER_SIZE > log.length) {
+            return 0;
+        }
+        final ByteBuffer record = ByteBuffer.wrap(log);
+        final int bodyLength = record.getInt(position);
+        if (bodyLength <= 0 || bodyLength > log.length - position - HEADER_SIZE - TRAILER_SIZE) {
+            return 0;
+        }
+        final int body = position + HEADER_SIZE;
+        final byte op = log[body];
+        if (op < OP_PUT || op > OP_PUT_STRING_SET) {
+            return 0;
+        }
+        if (op != OP_CLEAR) {
+            if (bodyLength < 1 + 4) {
+                return 0;
+            }
+            final int keyLength = record.getInt(body + 1);
+            if (keyLength < 0 || keyLength > bodyLength - 1 - 4) {
+                return 0;
+            }
+        }
+        if (record.getInt(body + bodyLength) != checksum(log, body, bodyLength)) {
+            return 0;
+        }
+        return HEADER_SIZE + bodyLength + TRAILER_SIZE;
+    }
+
+    /**
+     * Returns the position of the next valid record at or after the given position, or -1.
+     */
+    private static int findRecord(byte[] log, int position) {
+        for (int candidate = position; candidate + HEADER_SIZE + 1 + TRAILER_SIZE <= log.length; candidate++) {
+            if (getRecordSize(log, candidate) > 0) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private void applyRecord(byte[] buffer, int offset, int bodyLength, long recordPosition) {
+        final ByteBuffer body = ByteBuffer.wrap(buffer, offset, bodyLength);
+        final byte op = body.get();
+        if (op == OP_CLEAR) {
+            index.clear();
+            liveBytes = 0;
+            return;
+        }
+        final byte[] keyBytes = new byte[body.getInt()];
+        body.get(keyBytes);
+        final String key = new String(keyBytes, UTF_8);
+        final Entry previous;
+        if (op == OP_REMOVE) {
+            previous = index.remove(key);
+        } else {
+            final int recordSize = HEADER_SIZE + bodyLength + TRAILER_SIZE;
+            final long valuePosition = recordPosition + HEADER_SIZE + (body.position() - offset);
+            previous = index.put(key, new Entry(valuePosition, body.remaining(), op, recordSize));
+            liveBytes += recordSize;
+        }
+        if (previous != null) {
+            liveBytes -= previous.recordSize;
+        }
+    }
+
+    /**
+     * Appends the records and updates the index.
+     *
+     * @return the number of the appended batch, used to wait for its fsync.
+     */
+    private long append(byte[] records, List<String> changedKeys) throws IOException {
+        final long batch;
+        lock.writeLock().lock();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, size + buffer.position());
+            }
+            int offset = 0;
+            while (offset < records.length) {
+                final int bodyLength = ByteBuffer.wrap(records, offset, HEADER_SIZE).getInt();
+                applyRecord(records, offset + HEADER_SIZE, bodyLength, size + offset);
+                offset += HEADER_SIZE + bodyLength + TRAILER_SIZE;
+            }
+            size += records.length;
+            batch = ++appendedBatches;
+        } catch (IOException e) {
+            // Don't leave a partial record behind for the next append to follow.
+            channel.truncate(size);
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyListeners(changedKeys);
+        return batch;
+    }
+
+    /**
+     * Waits until the given batch is on disk. Callers that queue up while another fsync is running
+     * usually find their batch already covered by it, so concurrent commits share one fsync.
+     */
+    private void sync(long batch) throws IOException {
+        synchronized (syncLock) {
+            if (syncedBatches >= batch) {
+                return;
+            }
+            final long appended;
+            lock.readLock().lock();
+            try {
+                appended = appendedBatches;
+            } finally {
+                lock.readLock().unlock();
+            }
+            channel.force(false);
+            syncedBatches = appended;
+        }
+    }
+
+    private void scheduleSync() {
+        if (!syncScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        syncExecutor.execute(() -> {
+            syncScheduled.set(false);
+            try {
+                sync(Long.MAX_VALUE);
+                compactIfNeeded();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to sync " + file, e);
+            }
+        });
+    }
+
+    private boolean needsCompaction() {
+        return size > COMPACTION_MIN_BYTES && liveBytes * 2 < size;
+    }
+
+    /**
+     * Rewrites the log with one record per current entry once most of it is stale.
+     * The new log is synced before it replaces the old one, so a crash leaves either of them.
+     */
+    private void compactIfNeeded() throws IOException {
+        synchronized (syncLock) {
+            lock.writeLock().lock();
+            try {
+                if (!needsCompaction()) {
+                    return;
+                }
+                final File compacted = new File(file.getPath() + ".compact");
+                FileOutputStream out = new FileOutputStream(compacted);
+                try {
+                    ByteArrayOutputStream records = new ByteArrayOutputStream();
+                    for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                        byte[] value = new byte[entry.getValue().length];
+                        read(entry.getValue().position, value);
+                        writeRecord(records, entry.getValue().op, entry.getKey(), value);
+                        if (records.size() >= COMPACTION_MIN_BYTES) {
+                            records.writeTo(out);
+                            records.reset();
+                        }
+                    }
+                    records.writeTo(out);
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                if (!compacted.renameTo(file)) {
+                    compacted.delete();
+                    throw new IOException("Failed to replace " + file);
+                }
+                syncDirectory();
+                randomAccessFile.close();
+                open();
+                syncedBatches = appendedBatches;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Syncs the directory of the log, so the rename of a compaction survives a crash as well.
+     * Before Lollipop there is no API to open a directory, the rename is left to the file system.
+     */
+    private void syncDirectory() {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (directory == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        try {
+            final FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Failed to sync " + directory, e);
+        }
+    }
+
+    private void notifyListeners(final List<String> changedKeys) {
+        final List<OnSharedPreferenceChangeListener> targets;
+        synchronized (listeners) {
+            if (listeners.isEmpty() || changedKeys.isEmpty()) {
+                return;
+            }
+            targets = new ArrayList<>(listeners.keySet());
+        }
+        new Handler(Looper.getMainLooper()).post(() -> {
+            for (String key : changedKeys) {
+                for (OnSharedPreferenceChangeListener listener : targets) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+        });
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, byte op, String key, byte[] value) {
+        final byte[] keyBytes = key != null ? key.getBytes(UTF_8) : new byte[0];
+        final int bodyLength = 1 + (key != null ? 4 + keyBytes.length : 0) + (value != null ? value.length : 0);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength + TRAILER_SIZE);
+        record.putInt(bodyLength);
+        record.put(op);
+        if (key != null) {
+            record.putInt(keyBytes.length);
+            record.put(keyBytes);
+        }
+        if (value != null) {
+            record.put(value);
+        }
+        record.putInt(checksum(record.array(), HEADER_SIZE, bodyLength));
+        out.write(record.array(), 0, record.capacity());
+    }
+
+    private static int checksum(byte[] buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the decoded bytes if the value is Base64 that encodes back to exactly the same string.
+     */
+    private static byte[] decodeCanonicalBase64(String value) {
+        if (value.isEmpty() || value.length() % 4 != 0) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            final boolean padding = c == '=' && i >= value.length() - 2;
+            if (!padding && !(c >= 'A' && c <= 'Z') && !(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '+' && c != '/') {
+                return null;
+            }
+        }
+        try {
+            byte[] decoded = Base64.decode(value, Base64.NO_WRAP);
+            return Base64.encodeToString(decoded, Base64.NO_WRAP).equals(value) ? decoded : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the record that stores a value of any of the types SharedPreferences supports.
+     */
+    private static void writePutRecord(ByteArrayOutputStream out, String key, Object value) {
+        if (value instanceof String) {
+            final byte[] decoded = decodeCanonicalBase64((String) value);
+            if (decoded != null) {
+                writeRecord(out, OP_PUT_BASE64, key, decoded);
+            } else {
+                writeRecord(out, OP_PUT, key, ((String) value).getBytes(UTF_8));
+            }
+        } else if (value instanceof Integer) {
+            writeRecord(out, OP_PUT_INT, key, ByteBuffer.allocate(4).putInt((Integer) value).array());
+        } else if (value instanceof Long) {
+            writeRecord(out, OP_PUT_LONG, key, ByteBuffer.allocate(8).putLong((Long) value).array());
+        } else if (value instanceof Float) {
+            writeRecord(out, OP_PUT_FLOAT, key, ByteBuffer.allocate(4).putFloat((Float) value).array());
+        } else if (value instanceof Boolean) {
+            writeRecord(out, OP_PUT_BOOLEAN, key, new byte[]{(byte) ((Boolean) value ? 1 : 0)});
+        } else {
+            final Set<?> strings = (Set<?>) value;
+            final List<byte[]> encoded = new ArrayList<>(strings.size());
+            int length = 4;
+            for (Object string : strings) {
+                final byte[] bytes = ((String) string).getBytes(UTF_8);
+                encoded.add(bytes);
+                length += 4 + bytes.length;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(length).putInt(encoded.size());
+            for (byte[] bytes : encoded) {
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            writeRecord(out, OP_PUT_STRING_SET, key, buffer.array());
+        }
+    }
+
+    private static class Entry {
+        final long position;
+        final int length;
+        // The put operation that stored the value, determines its type.
+        final byte op;
+        final int recordSize;
+
+        Entry(long position, int length, byte op, int recordSize) {
+            this.position = position;
+            this.length = length;
+            this.op = op;
+            this.recordSize = recordSize;
+        }
+    }
+
+    private class LogEditor implements Editor {
+        // A null value removes the key.
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @Override
+        public synchronized Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        /**
+         * Like SharedPreferences, later changes to the set don't affect the stored values.
+         */
+        @Override
+        public synchronized Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values != null ? new HashSet<>(values) : null);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            try {
+                sync(appendChanges());
+                compactIfNeeded();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to commit " + file, e);
+                return false;
+            }
+        }
+
+        @Override
+        public void apply() {
+            try {
+                appendChanges();
+                scheduleSync();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to apply changes to " + file, e);
+            }
+        }
+
+        private synchronized long appendChanges() throws IOException {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            if (clear) {
+                writeRecord(records, OP_CLEAR, null, null);
+            }
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    writeRecord(records, OP_REMOVE, change.getKey(), null);
+                } else {
+                    writePutRecord(records, change.getKey(), change.getValue());
+                }
+            }
+            final List<String> changedKeys = new ArrayList<>(changes.keySet());
+            changes.clear();
+            clear = false;
+            if (records.size() == 0) {
+                return 0;
+            }
+            return append(records.toByteArray(), changedKeys);
+        }
+    }
+}
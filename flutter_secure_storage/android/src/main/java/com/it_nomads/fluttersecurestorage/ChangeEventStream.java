@@ -0,0 +1,96 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Streams the changes made through the plugin to Dart, so consumers don't have to poll for them.
+ * Every event is a map with the "type" ("write", "delete" or "deleteAll"), the
+ * "sharedPreferencesName", the "preferencesKeyPrefix" and, except for deleteAll, the "key" without
+ * that prefix. Writes carry the written value as "value".
+ * Events emitted before the main thread delivered the previous ones are sent together as one list,
+ * so the changes of a bulk operation arrive as a single batch.
+ * An EventChannel has one stream per engine, so Dart shares it between all listeners and filters
+ * the events of each listener itself.
+ */
+class ChangeEventStream implements EventChannel.StreamHandler {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Queue<Map<String, Object>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile EventChannel.EventSink sink;
+    private final Runnable drain = () -> {
+        // Cleared before draining, an event added from now on schedules the next batch.
+        scheduled.set(false);
+        final List<Map<String, Object>> batch = new ArrayList<>();
+        Map<String, Object> event;
+        while ((event = pending.poll()) != null) {
+            batch.add(event);
+        }
+        final EventChannel.EventSink current = sink;
+        if (current != null && !batch.isEmpty()) {
+            current.success(batch);
+        }
+    };
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink sink) {
+        pending.clear();
+        this.sink = sink;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        sink = null;
+        pending.clear();
+    }
+
+    boolean isListening() {
+        return sink != null;
+    }
+
+    /**
+     * @param value the written value, a String or byte[].
+     */
+    void emitWrite(StorageOptions options, String key, Object value) {
+        emit("write", options, key, value);
+    }
+
+    void emitDelete(StorageOptions options, String key) {
+        emit("delete", options, key, null);
+    }
+
+    void emitDeleteAll(StorageOptions options) {
+        emit("deleteAll", options, null, null);
+    }
+
+    private void emit(String type, StorageOptions options, String key, Object value) {
+        if (sink == null) {
+            return;
+        }
+        final Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("sharedPreferencesName", options.sharedPreferencesName);
+        event.put("preferencesKeyPrefix", options.keyPrefix);
+        if (key != null) {
+            event.put("key", key);
+        }
+        if (value != null) {
+            event.put("value", value);
+        }
+        pending.offer(event);
+        if (scheduled.compareAndSet(false, true)) {
+            handler.post(drain);
+        }
+    }
+}
@@ -19,23 +19,46 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FlutterSecureStorage {
 
+    // Number of values migrated per commit, bounds the memory used by a migration.
+    private static final int MIGRATION_CHUNK_SIZE = 64;
+    // Bounds the parsed options kept around if a caller keeps sending new option maps.
+    private static final int MAX_PARSED_OPTIONS = 32;
+    // Marks a value that writeBytes stored Base64 encoded in EncryptedSharedPreferences. U+FDD0 is a
+    // noncharacter, so a string written with write doesn't start with it.
+    private static final String BYTES_VALUE_PREFIX = "\uFDD0bytes:";
     private final String TAG = "SecureStorageAndroid";
     private final Charset charset;
     private final Context applicationContext;
     protected String ELEMENT_PREFERENCES_KEY_PREFIX = "VGhpcyBpcyB0aGUgcHJlZml4IGZvciBhIHNlY3VyZSBzdG9yYWdlCg";
-    protected Map<String, Object> options;
-    private String SHARED_PREFERENCES_NAME = "FlutterSecureStorage";
-    private SharedPreferences preferences;
-    private StorageCipher storageCipher;
-    private StorageCipherFactory storageCipherFactory;
-    private Boolean failedToUseEncryptedSharedPreferences = false;
+    private final String SHARED_PREFERENCES_NAME = "FlutterSecureStorage";
+    private final Map<String, StorageProfile> profiles = new ConcurrentHashMap<>();
+    private final ValueCache valueCache = new ValueCache();
+    private final MetricsRecorder metrics;
+    // Guarded by itself, in access order so the least recently used options are evicted first.
+    private final LinkedHashMap<Map<String, Object>, StorageOptions> parsedOptions = new LinkedHashMap<>(16, 0.75f, true);
+    // Guarded by itself, one buffer per preferences file.
+    private final Map<SharedPreferences, WriteBehindBuffer> writeBuffers = new IdentityHashMap<>();
 
     public FlutterSecureStorage(Context context) {
+        this(context, new MetricsRecorder());
+    }
+
+    FlutterSecureStorage(Context context, MetricsRecorder metrics) {
+        this.metrics = metrics;
         applicationContext = context.getApplicationContext();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -46,50 +69,125 @@ public class FlutterSecureStorage {
         }
     }
 
-    @SuppressWarnings({"ConstantConditions"})
-    boolean getResetOnError() {
-        return options.containsKey("resetOnError") && options.get("resetOnError").equals("true");
+    /**
+     * Returns the parsed form of the options sent with a method call. Callers send the same few
+     * option maps over and over, so each distinct map is parsed only once.
+     */
+    StorageOptions getOptions(Map<String, Object> rawOptions) {
+        synchronized (parsedOptions) {
+            StorageOptions options = parsedOptions.get(rawOptions);
+            if (options != null) {
+                return options;
+            }
+        }
+        final StorageOptions options = new StorageOptions(rawOptions, SHARED_PREFERENCES_NAME, ELEMENT_PREFERENCES_KEY_PREFIX);
+        synchronized (parsedOptions) {
+            parsedOptions.put(new HashMap<>(rawOptions), options);
+            Iterator<Map<String, Object>> iterator = parsedOptions.keySet().iterator();
+            while (parsedOptions.size() > MAX_PARSED_OPTIONS && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return options;
+    }
+
+    void clearValueCache() {
+        valueCache.clear();
+    }
+
+    long getValueCacheHits() {
+        return valueCache.getHits();
+    }
+
+    long getValueCacheMisses() {
+        return valueCache.getMisses();
+    }
+
+    int getValueCacheEntries() {
+        return valueCache.size();
     }
 
-    @SuppressWarnings({"ConstantConditions"})
-    private boolean getUseEncryptedSharedPreferences() {
-        if (failedToUseEncryptedSharedPreferences) {
-            return false;
+    boolean containsKey(StorageOptions options, String key) {
+        StorageProfile profile = ensureInitialized(options);
+        if (profile.writeBuffer != null) {
+            return profile.writeBuffer.contains(key);
         }
-        return options.containsKey("encryptedSharedPreferences") && options.get("encryptedSharedPreferences").equals("true") && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        return profile.preferences.contains(key);
+    }
+
+    /**
+     * Reads a value with a single lookup, returning null if the key doesn't exist.
+     */
+    String read(StorageOptions options, String key) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+
+        return readValue(profile, key, options.valueCacheSize, options.valueCacheTtlMillis);
     }
 
-    boolean containsKey(String key) {
-        ensureInitialized();
-        return preferences.contains(key);
+    private String readValue(StorageProfile profile, String key, int cacheSize, long cacheTtlMillis) throws Exception {
+        final String cacheKey = getValueCacheKey(profile, key);
+        if (cacheSize > 0) {
+            String cachedValue = valueCache.get(cacheKey);
+            if (cachedValue != null) {
+                return cachedValue;
+            }
+        }
+        final long cacheVersion = valueCache.getVersion();
+
+        String rawValue = getRawValue(profile, key);
+        String value = profile.useEncryptedSharedPreferences ? rawValue : decodeRawValue(profile, key, rawValue);
+
+        if (cacheSize > 0 && value != null) {
+            valueCache.put(cacheKey, value, cacheSize, cacheTtlMillis, cacheVersion);
+        }
+        return value;
     }
 
-    String read(String key) throws Exception {
-        ensureInitialized();
+    /**
+     * Scoped to the profile, profiles of the same name can read different files or decrypt differently.
+     */
+    private String getValueCacheKey(StorageProfile profile, String key) {
+        return profile.profileKey + '\0' + key;
+    }
 
-        String rawValue = preferences.getString(key, null);
-        if (getUseEncryptedSharedPreferences()) {
-            return rawValue;
+    /**
+     * Drops the cached value of the key for every profile of the file, they may all read the change.
+     */
+    private void invalidateCachedValue(StorageProfile profile, String key) {
+        valueCache.invalidate(getValueCacheKey(profile, key));
+        for (StorageProfile other : profiles.values()) {
+            if (other != profile && other.sharedPreferencesName.equals(profile.sharedPreferencesName)) {
+                valueCache.invalidate(getValueCacheKey(other, key));
+            }
         }
-        return decodeRawValue(rawValue);
+    }
+
+    private void invalidateCachedValues(String sharedPreferencesName) {
+        // Every profile key starts with the name of the file.
+        valueCache.invalidatePrefix(sharedPreferencesName + '\0');
     }
 
     @SuppressWarnings("unchecked")
-    public Map<String, String> readAll() throws Exception {
-        ensureInitialized();
+    public Map<String, String> readAll(StorageOptions options) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
 
-        Map<String, String> raw = (Map<String, String>) preferences.getAll();
+        flushWriteBuffer(profile);
+        final long diskStart = System.nanoTime();
+        Map<String, String> raw = (Map<String, String>) profile.preferences.getAll();
+        metrics.addPhase(MetricsRecorder.Phase.DISK, System.nanoTime() - diskStart);
 
+        final String keyPrefix = profile.keyPrefix + '_';
         Map<String, String> all = new HashMap<>();
         for (Map.Entry<String, String> entry : raw.entrySet()) {
             String keyWithPrefix = entry.getKey();
-            if (keyWithPrefix.contains(ELEMENT_PREFERENCES_KEY_PREFIX)) {
-                String key = entry.getKey().replaceFirst(ELEMENT_PREFERENCES_KEY_PREFIX + '_', "");
-                if (getUseEncryptedSharedPreferences()) {
+            if (keyWithPrefix.startsWith(keyPrefix)) {
+                String key = keyWithPrefix.substring(keyPrefix.length());
+                if (profile.useEncryptedSharedPreferences) {
                     all.put(key, entry.getValue());
                 } else {
                     String rawValue = entry.getValue();
-                    String value = decodeRawValue(rawValue);
+                    String value = decodeRawValue(profile, keyWithPrefix, rawValue);
 
                     all.put(key, value);
                 }
@@ -98,137 +196,541 @@ public class FlutterSecureStorage {
         return all;
     }
 
-    void write(String key, String value) throws Exception {
-        ensureInitialized();
+    /**
+     * Lists the keys without prefix without decrypting any value.
+     */
+    List<String> readKeys(StorageOptions options) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+        flushWriteBuffer(profile);
+
+        final String keyPrefix = profile.keyPrefix + '_';
+        List<String> keys = new ArrayList<>();
+        for (String keyWithPrefix : StorageBackend.getKeys(profile.preferences)) {
+            if (keyWithPrefix.startsWith(keyPrefix)) {
+                keys.add(keyWithPrefix.substring(keyPrefix.length()));
+            }
+        }
+        return keys;
+    }
 
-        SharedPreferences.Editor editor = preferences.edit();
+    int countKeys(StorageOptions options) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+        flushWriteBuffer(profile);
 
-        if (getUseEncryptedSharedPreferences()) {
-            editor.putString(key, value);
+        final String keyPrefix = profile.keyPrefix + '_';
+        int count = 0;
+        for (String keyWithPrefix : StorageBackend.getKeys(profile.preferences)) {
+            if (keyWithPrefix.startsWith(keyPrefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the values of at most {@code limit} keys in key order, so that large stores can be
+     * loaded page by page. Only the values of the returned page are decrypted.
+     *
+     * @param cursor the last key of the previous page, or null to start with the first key.
+     * @return the values by key without prefix, in key order. A page with less than
+     * {@code limit} entries is the last one.
+     */
+    Map<String, String> readAllPage(StorageOptions options, String cursor, int limit) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+        flushWriteBuffer(profile);
+
+        final String keyPrefix = profile.keyPrefix + '_';
+        final TreeMap<String, String> page = new TreeMap<>();
+        for (String keyWithPrefix : StorageBackend.getKeys(profile.preferences)) {
+            if (keyWithPrefix.startsWith(keyPrefix)) {
+                String key = keyWithPrefix.substring(keyPrefix.length());
+                if (cursor == null || key.compareTo(cursor) > 0) {
+                    page.put(key, keyWithPrefix);
+                    if (page.size() > limit) {
+                        page.pollLastEntry();
+                    }
+                }
+            }
+        }
+
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : page.entrySet()) {
+            String rawValue = getRawValue(profile, entry.getValue());
+            if (profile.useEncryptedSharedPreferences) {
+                values.put(entry.getKey(), rawValue);
+            } else {
+                values.put(entry.getKey(), decodeRawValue(profile, entry.getValue(), rawValue));
+            }
+        }
+        return values;
+    }
+
+    void write(StorageOptions options, String key, String value) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+
+        if (profile.useEncryptedSharedPreferences) {
+            persist(profile, options, key, value);
         } else {
-            byte[] result = storageCipher.encrypt(value.getBytes(charset));
-            editor.putString(key, Base64.encodeToString(result, 0));
+            persist(profile, options, key, encodeRawValue(profile.storageCipher, key, value.getBytes(charset)));
+            markMigrationPending(profile.sharedPreferencesName);
         }
-        editor.apply();
+        invalidateCachedValue(profile, key);
     }
 
-    public void delete(String key) {
-        ensureInitialized();
+    /**
+     * Reads a value without converting it to a string, returning null if the key doesn't exist.
+     * Without encryptedSharedPreferences the decrypted bytes are returned as they are, so a value written
+     * with {@link #write} reads back as its UTF-8 bytes. With encryptedSharedPreferences only values
+     * tagged by {@link #writeBytes} are Base64 decoded, any other value is returned as its UTF-8 bytes
+     * as well.
+     */
+    byte[] readBytes(StorageOptions options, String key) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+
+        String rawValue = getRawValue(profile, key);
+        if (!profile.useEncryptedSharedPreferences) {
+            return decodeRawBytes(profile.storageCipher, key, rawValue);
+        }
+        if (rawValue == null) {
+            return null;
+        }
+        if (rawValue.startsWith(BYTES_VALUE_PREFIX)) {
+            return Base64.decode(rawValue.substring(BYTES_VALUE_PREFIX.length()), Base64.NO_WRAP);
+        }
+        return rawValue.getBytes(charset);
+    }
 
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.remove(key);
-        editor.apply();
+    /**
+     * Writes a value without converting it from a string.
+     * EncryptedSharedPreferences can only hold strings, so in that mode the bytes are stored Base64
+     * encoded behind {@link #BYTES_VALUE_PREFIX}.
+     */
+    void writeBytes(StorageOptions options, String key, byte[] value) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+
+        if (profile.useEncryptedSharedPreferences) {
+            persist(profile, options, key, encodeBytesValue(value));
+        } else {
+            persist(profile, options, key, encodeRawValue(profile.storageCipher, key, value));
+            markMigrationPending(profile.sharedPreferencesName);
+        }
+        invalidateCachedValue(profile, key);
+    }
+
+    /**
+     * Reads several keys with a single initialization. Missing keys are mapped to null.
+     */
+    Map<String, String> readMany(StorageOptions options, List<String> keys) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+        final int cacheSize = options.valueCacheSize;
+        final long cacheTtlMillis = options.valueCacheTtlMillis;
+
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            values.put(key, readValue(profile, key, cacheSize, cacheTtlMillis));
+        }
+        return values;
+    }
+
+    /**
+     * Encrypts all values first and then persists them with a single editor and one commit.
+     */
+    void writeBatch(StorageOptions options, Map<String, String> values) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+        flushWriteBuffer(profile);
+
+        SharedPreferences.Editor editor = profile.preferences.edit();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (profile.useEncryptedSharedPreferences) {
+                editor.putString(entry.getKey(), entry.getValue());
+            } else {
+                editor.putString(entry.getKey(), encodeRawValue(profile.storageCipher, entry.getKey(), entry.getValue().getBytes(charset)));
+            }
+        }
+        if (!profile.useEncryptedSharedPreferences) {
+            markMigrationPending(profile.sharedPreferencesName);
+        }
+        boolean committed = tryCommit(editor);
+        for (String key : values.keySet()) {
+            invalidateCachedValue(profile, key);
+        }
+        if (!committed) {
+            throw new Exception("Failed to commit " + values.size() + " values");
+        }
+    }
+
+    public void delete(StorageOptions options, String key) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+
+        persist(profile, options, key, null);
+        invalidateCachedValue(profile, key);
     }
 
-    void deleteAll() {
-        ensureInitialized();
+    void deleteMany(StorageOptions options, List<String> keys) throws Exception {
+        StorageProfile profile = ensureInitialized(options);
+        flushWriteBuffer(profile);
 
-        final SharedPreferences.Editor editor = preferences.edit();
+        SharedPreferences.Editor editor = profile.preferences.edit();
+        for (String key : keys) {
+            editor.remove(key);
+        }
+        boolean committed = tryCommit(editor);
+        for (String key : keys) {
+            invalidateCachedValue(profile, key);
+        }
+        if (!committed) {
+            throw new Exception("Failed to commit removal of " + keys.size() + " keys");
+        }
+    }
+
+    void deleteAll(StorageOptions options) {
+        StorageProfile profile = ensureInitialized(options);
+        if (profile.writeBuffer != null) {
+            profile.writeBuffer.discard();
+        }
+
+        final SharedPreferences.Editor editor = profile.preferences.edit();
         editor.clear();
-        if (!getUseEncryptedSharedPreferences()) {
-            storageCipherFactory.storeCurrentAlgorithms(editor);
+        if (!profile.useEncryptedSharedPreferences) {
+            profile.storageCipherFactory.storeCurrentAlgorithms(editor);
         }
-        editor.apply();
+        apply(editor);
+        invalidateCachedValues(profile.sharedPreferencesName);
+    }
+
+    /**
+     * Persists the pending changes of every file that was written with a write-behind delay.
+     */
+    void flush() throws Exception {
+        final List<WriteBehindBuffer> buffers;
+        synchronized (writeBuffers) {
+            buffers = new ArrayList<>(writeBuffers.values());
+        }
+        for (WriteBehindBuffer buffer : buffers) {
+            buffer.flush();
+        }
+    }
+
+    /**
+     * Returns the storage state for the current options, building it only the first time a
+     * combination of options is seen. Each combination is cached separately so that mixed usage
+     * of encryptedSharedPreferences and custom names or prefixes keeps working.
+     */
+    private StorageProfile ensureInitialized(StorageOptions options) {
+        return ensureInitialized(options, null);
     }
 
-    @SuppressWarnings({"ConstantConditions"})
-    private void ensureInitialized() {
-        // Check if already initialized.
-        // TODO: Disable for now because this will break mixed usage of secureSharedPreference
-//        if (preferences != null) return;
+    /**
+     * Builds the storage state for the options ahead of the first real call and reports how long
+     * each initialization phase took in microseconds. Only "totalMicros" is reported if the
+     * state was already built.
+     */
+    Map<String, Long> warmUp(StorageOptions options) {
+        final long start = System.nanoTime();
+        final Map<String, Long> timings = new LinkedHashMap<>();
+        ensureInitialized(options, timings);
+        timings.put("totalMicros", (System.nanoTime() - start) / 1000);
+        return timings;
+    }
 
-        if (options.containsKey("sharedPreferencesName") && !((String) options.get("sharedPreferencesName")).isEmpty()) {
-            SHARED_PREFERENCES_NAME = (String) options.get("sharedPreferencesName");
+    /**
+     * @param timings receives the duration of every initialization phase, may be null.
+     */
+    private StorageProfile ensureInitialized(StorageOptions options, Map<String, Long> timings) {
+        final String profileKey = options.profileKey;
+        StorageProfile profile = profiles.get(profileKey);
+        if (profile != null && !profile.migrationPending) {
+            return profile;
         }
 
-        if (options.containsKey("preferencesKeyPrefix") && !((String) options.get("preferencesKeyPrefix")).isEmpty()) {
-            ELEMENT_PREFERENCES_KEY_PREFIX = (String) options.get("preferencesKeyPrefix");
+        final long initStart = System.nanoTime();
+        try {
+            return initializeProfile(options, timings);
+        } finally {
+            metrics.addPhase(MetricsRecorder.Phase.INIT, System.nanoTime() - initStart);
         }
+    }
 
-        SharedPreferences nonEncryptedPreferences = applicationContext.getSharedPreferences(
-                SHARED_PREFERENCES_NAME,
-                Context.MODE_PRIVATE
-        );
-        if (storageCipher == null) {
-            try {
-                initStorageCipher(nonEncryptedPreferences);
+    private StorageProfile initializeProfile(StorageOptions options, Map<String, Long> timings) {
+        final String profileKey = options.profileKey;
+        // Initialization creates keys and migrates data, so it must never run twice in parallel.
+        synchronized (profiles) {
+            StorageProfile profile = profiles.get(profileKey);
+            if (profile == null) {
+                profile = createProfile(options, timings);
+            } else if (profile.migrationPending) {
+                // Another profile wrote unencrypted values into the same file in the meantime.
+                profile.migrationPending = false;
+                SharedPreferences nonEncryptedPreferences = openPreferences(options, profile.sharedPreferencesName);
+                checkAndMigrateToEncrypted(profile, nonEncryptedPreferences);
+            }
+            return profile;
+        }
+    }
 
-            } catch (Exception e) {
-                Log.e(TAG, "StorageCipher initialization failed", e);
+    /**
+     * Opens the file that holds the values without encryptedSharedPreferences. With
+     * encryptedSharedPreferences it is the same XML file EncryptedSharedPreferences stores its
+     * keysets and values in, so it is neither moved into a log nor sharded.
+     */
+    SharedPreferences openPreferences(StorageOptions options, String sharedPreferencesName) {
+        final StorageBackend backend = options.useEncryptedSharedPreferences ? StorageBackend.SHARED_PREFERENCES : options.storageBackend;
+        final int shardCount = options.useEncryptedSharedPreferences ? 1 : options.shardCount;
+        final SharedPreferences preferences;
+        try {
+            preferences = ShardedPreferences.open(backend, applicationContext, sharedPreferencesName, shardCount);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open " + sharedPreferencesName, e);
+        }
+        // Initialization reads and rewrites the whole file, so changes written behind by other
+        // profiles must be in it.
+        try {
+            WriteBehindBuffer buffer = getWriteBuffer(preferences, false);
+            if (buffer != null) {
+                buffer.flush();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to persist pending changes of " + sharedPreferencesName, e);
+        }
+        return preferences;
+    }
+
+    /**
+     * Builds the profile and caches it once it is initialized. A profile whose initialization failed
+     * is still returned for the current call, but built again by the next one.
+     */
+    private StorageProfile createProfile(StorageOptions options, Map<String, Long> timings) {
+        final String sharedPreferencesName = options.sharedPreferencesName;
+        final String keyPrefix = options.keyPrefix;
+
+        long phaseStart = System.nanoTime();
+        SharedPreferences nonEncryptedPreferences = openPreferences(options, sharedPreferencesName);
+        if (timings != null) {
+            // The file is loaded in the background, wait for it so it isn't billed to the next phase.
+            nonEncryptedPreferences.contains(keyPrefix);
+        }
+        phaseStart = recordPhase(timings, "preferencesMicros", phaseStart);
+
+        StorageCipherFactory storageCipherFactory = null;
+        StorageCipher storageCipher = null;
+        try {
+            storageCipherFactory = new StorageCipherFactory(nonEncryptedPreferences, options.keyCipherAlgorithm, options.storageCipherAlgorithm);
+            if (options.useEncryptedSharedPreferences) {
+                storageCipherFactory.loadSavedKeyCipher(applicationContext);
+                phaseStart = recordPhase(timings, "keyCipherMicros", phaseStart);
+                storageCipher = storageCipherFactory.getSavedStorageCipher(applicationContext);
+                phaseStart = recordPhase(timings, "storageCipherMicros", phaseStart);
+            } else if (storageCipherFactory.requiresReEncryption()) {
+                try {
+                    // An interrupted re-encryption is finished first, the file is then re-encrypted
+                    // again if the options have changed in between.
+                    do {
+                        reEncryptPreferences(storageCipherFactory, nonEncryptedPreferences, keyPrefix);
+                        storageCipherFactory = new StorageCipherFactory(nonEncryptedPreferences, options.keyCipherAlgorithm, options.storageCipherAlgorithm);
+                    } while (storageCipherFactory.requiresReEncryption());
+                    storageCipher = storageCipherFactory.getCurrentStorageCipher(applicationContext);
+                } catch (Exception e) {
+                    Log.e(TAG, "re-encryption failed", e);
+                    storageCipherFactory = new StorageCipherFactory(nonEncryptedPreferences, options.keyCipherAlgorithm, options.storageCipherAlgorithm);
+                    // Once values were rewritten, neither cipher can read all of them until the
+                    // re-encryption is resumed, so the profile is left uninitialized.
+                    if (!storageCipherFactory.isMigrationPending()) {
+                        storageCipher = storageCipherFactory.getSavedStorageCipher(applicationContext);
+                    }
+                }
+                // Ciphers cached for other algorithms can no longer read this file.
+                removeProfiles(sharedPreferencesName);
+                phaseStart = recordPhase(timings, "reEncryptionMicros", phaseStart);
+            } else {
+                storageCipherFactory.loadCurrentKeyCipher(applicationContext);
+                phaseStart = recordPhase(timings, "keyCipherMicros", phaseStart);
+                storageCipher = storageCipherFactory.getCurrentStorageCipher(applicationContext);
+                if (timings != null) {
+                    // Other calls only load the key once they encrypt or decrypt a value.
+                    storageCipher.loadKey();
+                }
+                phaseStart = recordPhase(timings, "storageCipherMicros", phaseStart);
             }
+        } catch (Exception e) {
+            Log.e(TAG, "StorageCipher initialization failed", e);
         }
-        if (getUseEncryptedSharedPreferences() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+
+        if (options.useEncryptedSharedPreferences && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             try {
-                preferences = initializeEncryptedSharedPreferencesManager(applicationContext);
-                checkAndMigrateToEncrypted(nonEncryptedPreferences, preferences);
+                phaseStart = System.nanoTime();
+                SharedPreferences preferences = initializeEncryptedSharedPreferencesManager(applicationContext, sharedPreferencesName);
+                phaseStart = recordPhase(timings, "encryptedSharedPreferencesMicros", phaseStart);
+                StorageProfile profile = new StorageProfile(options.profileKey, sharedPreferencesName, keyPrefix, preferences, storageCipher, storageCipherFactory, true, null);
+                // Values are read from EncryptedSharedPreferences, so the profile doesn't need the cipher
+                // once the migration is done. A failed migration drops it from the cache again.
+                profiles.put(options.profileKey, profile);
+                checkAndMigrateToEncrypted(profile, nonEncryptedPreferences);
+                recordPhase(timings, "migrationMicros", phaseStart);
+                return profile;
             } catch (Exception e) {
                 Log.e(TAG, "EncryptedSharedPreferences initialization failed", e);
-                preferences = nonEncryptedPreferences;
-                failedToUseEncryptedSharedPreferences = true;
+                metrics.recordEncryptedSharedPreferencesFallback();
             }
+        }
+        StorageProfile profile = new StorageProfile(options.profileKey, sharedPreferencesName, keyPrefix, nonEncryptedPreferences, storageCipher, storageCipherFactory, false,
+                getWriteBuffer(nonEncryptedPreferences, options.writeBehindMillis > 0));
+        if (storageCipher != null) {
+            profiles.put(options.profileKey, profile);
         } else {
-            preferences = nonEncryptedPreferences;
+            // Values can't be read or written without a cipher, so initialization is retried on the next call.
+            metrics.recordInitFailure();
         }
+        return profile;
     }
 
-    private void initStorageCipher(SharedPreferences source) throws Exception {
-        storageCipherFactory = new StorageCipherFactory(source, options);
-        if (getUseEncryptedSharedPreferences()) {
-            storageCipher = storageCipherFactory.getSavedStorageCipher(applicationContext);
-        } else if (storageCipherFactory.requiresReEncryption()) {
-            reEncryptPreferences(storageCipherFactory, source);
-        } else {
-            storageCipher = storageCipherFactory.getCurrentStorageCipher(applicationContext);
+    /**
+     * Stores the time since {@code phaseStart} and returns the start of the next phase.
+     */
+    private long recordPhase(Map<String, Long> timings, String phase, long phaseStart) {
+        final long now = System.nanoTime();
+        if (timings != null) {
+            timings.put(phase, (now - phaseStart) / 1000);
         }
+        return now;
     }
 
-    private void reEncryptPreferences(StorageCipherFactory storageCipherFactory, SharedPreferences source) throws Exception {
-        try {
-            storageCipher = storageCipherFactory.getSavedStorageCipher(applicationContext);
-            final Map<String, String> cache = new HashMap<>();
-            for (Map.Entry<String, ?> entry : source.getAll().entrySet()) {
-                Object v = entry.getValue();
-                String key = entry.getKey();
-                if (v instanceof String && key.contains(ELEMENT_PREFERENCES_KEY_PREFIX)) {
-                    final String decodedValue = decodeRawValue((String) v);
-                    cache.put(key, decodedValue);
-                }
+    private void removeProfiles(String sharedPreferencesName) {
+        Iterator<StorageProfile> iterator = profiles.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().sharedPreferencesName.equals(sharedPreferencesName)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void markMigrationPending(String sharedPreferencesName) {
+        for (StorageProfile profile : profiles.values()) {
+            if (profile.useEncryptedSharedPreferences && profile.sharedPreferencesName.equals(sharedPreferencesName)) {
+                profile.migrationPending = true;
+            }
+        }
+    }
+
+    /**
+     * Re-encrypts the values with the target cipher in chunks of {@link #MIGRATION_CHUNK_SIZE} keys.
+     * Every chunk is committed together with the last key it contains, so a re-encryption that is
+     * interrupted by a crash resumes after that key the next time the file is opened.
+     */
+    private void reEncryptPreferences(StorageCipherFactory storageCipherFactory, SharedPreferences source, String keyPrefix) throws Exception {
+        final String progress = storageCipherFactory.getMigrationProgress();
+        final List<String> keys = getMigratableKeys(source, keyPrefix + '_');
+        Collections.sort(keys);
+        int start = 0;
+        if (progress != null) {
+            while (start < keys.size() && keys.get(start).compareTo(progress) <= 0) {
+                start++;
             }
-            storageCipher = storageCipherFactory.getCurrentStorageCipher(applicationContext);
+        }
+
+        // The saved cipher is only needed if there is something to re-encrypt, this saves creating
+        // the Keystore key of the default algorithm when a new file starts with another one.
+        StorageCipher savedCipher = null;
+        StorageCipher targetCipher = null;
+        if (start < keys.size()) {
+            savedCipher = storageCipherFactory.getSavedStorageCipher(applicationContext);
+            targetCipher = storageCipherFactory.getMigrationTargetStorageCipher(applicationContext);
+        }
+
+        if (!storageCipherFactory.isMigrationPending()) {
+            final SharedPreferences.Editor editor = source.edit();
+            storageCipherFactory.storeMigrationTarget(editor);
+            commit(editor);
+        }
+
+        for (; start < keys.size(); start += MIGRATION_CHUNK_SIZE) {
+            final List<String> chunk = keys.subList(start, Math.min(start + MIGRATION_CHUNK_SIZE, keys.size()));
             final SharedPreferences.Editor editor = source.edit();
-            for (Map.Entry<String, String> entry : cache.entrySet()) {
-                byte[] result = storageCipher.encrypt(entry.getValue().getBytes(charset));
-                editor.putString(entry.getKey(), Base64.encodeToString(result, 0));
+            for (String key : chunk) {
+                final byte[] value;
+                try {
+                    // Re-encrypt the plain bytes, values written with writeBytes are not always valid UTF-8.
+                    value = decodeRawBytes(savedCipher, key, source.getString(key, null));
+                } catch (Exception e) {
+                    // The value was already unreadable, leave it as it is.
+                    Log.e(TAG, "re-encryption skipped an unreadable value", e);
+                    continue;
+                }
+                editor.putString(key, encodeRawValue(targetCipher, key, value));
             }
-            storageCipherFactory.storeCurrentAlgorithms(editor);
-            editor.apply();
-        } catch (Exception e) {
-            Log.e(TAG, "re-encryption failed", e);
-            storageCipher = storageCipherFactory.getSavedStorageCipher(applicationContext);
+            storageCipherFactory.storeMigrationProgress(editor, chunk.get(chunk.size() - 1));
+            commit(editor);
         }
+
+        final SharedPreferences.Editor editor = source.edit();
+        storageCipherFactory.completeMigration(editor);
+        commit(editor);
     }
 
-    private void checkAndMigrateToEncrypted(SharedPreferences source, SharedPreferences target) {
+    /**
+     * Moves the values into EncryptedSharedPreferences in chunks of {@link #MIGRATION_CHUNK_SIZE}
+     * keys, with one commit per file and chunk. A value is only removed from the source after it
+     * was committed to the target, so an interrupted migration simply continues with the values
+     * that are still left in the source.
+     */
+    private void checkAndMigrateToEncrypted(StorageProfile profile, SharedPreferences source) {
+        SharedPreferences target = profile.preferences;
         try {
-            for (Map.Entry<String, ?> entry : source.getAll().entrySet()) {
-                Object v = entry.getValue();
-                String key = entry.getKey();
-                if (v instanceof String && key.contains(ELEMENT_PREFERENCES_KEY_PREFIX)) {
-                    final String decodedValue = decodeRawValue((String) v);
-                    target.edit().putString(key, (decodedValue)).apply();
-                    source.edit().remove(key).apply();
+            final List<String> keys = getMigratableKeys(source, profile.keyPrefix + '_');
+            for (int start = 0; start < keys.size(); start += MIGRATION_CHUNK_SIZE) {
+                final List<String> chunk = keys.subList(start, Math.min(start + MIGRATION_CHUNK_SIZE, keys.size()));
+                final SharedPreferences.Editor targetEditor = target.edit();
+                final SharedPreferences.Editor sourceEditor = source.edit();
+                for (String key : chunk) {
+                    final byte[] decodedValue = decodeRawBytes(profile.storageCipher, key, source.getString(key, null));
+                    targetEditor.putString(key, toEncryptedPreferencesValue(decodedValue));
+                    sourceEditor.remove(key);
                 }
+                commit(targetEditor);
+                commit(sourceEditor);
             }
             final SharedPreferences.Editor sourceEditor = source.edit();
-            storageCipherFactory.removeCurrentAlgorithms(sourceEditor);
-            sourceEditor.apply();
+            profile.storageCipherFactory.removeCurrentAlgorithms(sourceEditor);
+            commit(sourceEditor);
+            // Migrated values are no longer visible to unencrypted profiles of this file.
+            invalidateCachedValues(profile.sharedPreferencesName);
         } catch (Exception e) {
             Log.e(TAG, "Data migration failed", e);
+            // The next call builds the profile again and retries the migration.
+            profiles.remove(profile.profileKey, profile);
+        }
+    }
+
+    private String encodeBytesValue(byte[] value) {
+        return BYTES_VALUE_PREFIX + Base64.encodeToString(value, Base64.NO_WRAP);
+    }
+
+    /**
+     * Converts a decrypted value for EncryptedSharedPreferences. Values that aren't valid UTF-8 were
+     * written with writeBytes and are tagged, so they keep their bytes.
+     */
+    private String toEncryptedPreferencesValue(byte[] value) {
+        final String string = new String(value, charset);
+        return Arrays.equals(string.getBytes(charset), value) ? string : encodeBytesValue(value);
+    }
+
+    private List<String> getMigratableKeys(SharedPreferences source, String keyPrefix) {
+        final List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : source.getAll().entrySet()) {
+            if (entry.getValue() instanceof String && entry.getKey().startsWith(keyPrefix)) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    private void commit(SharedPreferences.Editor editor) throws Exception {
+        if (!tryCommit(editor)) {
+            throw new Exception("Failed to commit preferences");
         }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
-    private SharedPreferences initializeEncryptedSharedPreferencesManager(Context context) throws GeneralSecurityException, IOException {
+    private SharedPreferences initializeEncryptedSharedPreferencesManager(Context context, String sharedPreferencesName) throws GeneralSecurityException, IOException {
         MasterKey key = new MasterKey.Builder(context)
                 .setKeyGenParameterSpec(
                         new KeyGenParameterSpec
@@ -239,20 +741,130 @@ public class FlutterSecureStorage {
                 .build();
         return EncryptedSharedPreferences.create(
                 context,
-                SHARED_PREFERENCES_NAME,
+                sharedPreferencesName,
                 key,
                 EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
                 EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
         );
     }
 
-    private String decodeRawValue(String value) throws Exception {
+    private String decodeRawValue(StorageProfile profile, String key, String value) throws Exception {
+        byte[] result = decodeRawBytes(profile.storageCipher, key, value);
+
+        return result == null ? null : new String(result, charset);
+    }
+
+    /**
+     * Decrypts a stored value. Both the current unwrapped and the older line wrapped Base64 form are accepted.
+     *
+     * @param key the preferences key the value is stored under, ciphers that bind a value to its key
+     *            authenticate it.
+     */
+    private byte[] decodeRawBytes(StorageCipher storageCipher, String key, String value) throws Exception {
         if (value == null) {
             return null;
         }
-        byte[] data = Base64.decode(value, 0);
-        byte[] result = storageCipher.decrypt(data);
+        final long start = System.nanoTime();
+        try {
+            byte[] data = Base64.decode(value, Base64.DEFAULT);
+            return storageCipher.supportsAssociatedData() ? storageCipher.decrypt(data, key.getBytes(charset)) : storageCipher.decrypt(data);
+        } finally {
+            metrics.addPhase(MetricsRecorder.Phase.CRYPTO, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Encrypts a value for storage. NO_WRAP leaves out the line feed Base64.DEFAULT adds every 76 characters.
+     */
+    private String encodeRawValue(StorageCipher storageCipher, String key, byte[] value) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            final byte[] encrypted = storageCipher.supportsAssociatedData() ? storageCipher.encrypt(value, key.getBytes(charset)) : storageCipher.encrypt(value);
+            return Base64.encodeToString(encrypted, Base64.NO_WRAP);
+        } finally {
+            metrics.addPhase(MetricsRecorder.Phase.CRYPTO, System.nanoTime() - start);
+        }
+    }
 
-        return new String(result, charset);
+    private String getRawValue(StorageProfile profile, String key) {
+        final long start = System.nanoTime();
+        try {
+            if (profile.writeBuffer != null) {
+                return profile.writeBuffer.getString(key);
+            }
+            return profile.preferences.getString(key, null);
+        } finally {
+            metrics.addPhase(MetricsRecorder.Phase.DISK, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stores a value, or removes the key if the value is null. With a write-behind delay the change
+     * is kept in the buffer of the file, otherwise pending changes are persisted before it.
+     */
+    private void persist(StorageProfile profile, StorageOptions options, String key, String value) throws Exception {
+        if (profile.writeBuffer != null && options.writeBehindMillis > 0) {
+            final long start = System.nanoTime();
+            try {
+                profile.writeBuffer.put(key, value, options.writeBehindMillis, options.writeBehindMaxPending);
+            } finally {
+                metrics.addPhase(MetricsRecorder.Phase.DISK, System.nanoTime() - start);
+            }
+            return;
+        }
+        flushWriteBuffer(profile);
+        SharedPreferences.Editor editor = profile.preferences.edit();
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+        apply(editor);
+    }
+
+    private void flushWriteBuffer(StorageProfile profile) throws Exception {
+        if (profile.writeBuffer != null) {
+            final long start = System.nanoTime();
+            try {
+                profile.writeBuffer.flush();
+            } finally {
+                metrics.addPhase(MetricsRecorder.Phase.DISK, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @param create whether to create the buffer if the file has none yet. Profiles of the file that
+     *               were built without one read and write through the new buffer from then on.
+     */
+    private WriteBehindBuffer getWriteBuffer(SharedPreferences preferences, boolean create) {
+        synchronized (writeBuffers) {
+            WriteBehindBuffer buffer = writeBuffers.get(preferences);
+            if (buffer == null && create) {
+                buffer = new WriteBehindBuffer(preferences);
+                writeBuffers.put(preferences, buffer);
+                for (StorageProfile profile : profiles.values()) {
+                    if (profile.preferences == preferences) {
+                        profile.writeBuffer = buffer;
+                    }
+                }
+            }
+            return buffer;
+        }
+    }
+
+    private void apply(SharedPreferences.Editor editor) {
+        final long start = System.nanoTime();
+        editor.apply();
+        metrics.addPhase(MetricsRecorder.Phase.DISK, System.nanoTime() - start);
+    }
+
+    private boolean tryCommit(SharedPreferences.Editor editor) {
+        final long start = System.nanoTime();
+        try {
+            return editor.commit();
+        } finally {
+            metrics.addPhase(MetricsRecorder.Phase.DISK, System.nanoTime() - start);
+        }
     }
 }
@@ -1,9 +1,8 @@
 package com.it_nomads.fluttersecurestorage;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
+import android.content.res.Configuration;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -11,38 +10,133 @@ import androidx.annotation.NonNull;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.StandardMethodCodec;
 
 public class FlutterSecureStoragePlugin implements MethodCallHandler, FlutterPlugin {
 
+    /**
+     * Receives the timings of every method call, e.g. to forward them to an app's own telemetry.
+     */
+    public interface MetricsListener {
+        /**
+         * Called on the worker thread that ran the call, so it must return quickly.
+         *
+         * @param method      the name of the method call.
+         * @param phaseMicros how long the call spent in each phase in microseconds: "queueWait",
+         *                    "init", "crypto", "disk" and "total". The reply is sent after the call
+         *                    ended, its duration is only reported by getMetrics.
+         * @param failed      whether the call replied with an error or reset the storage.
+         */
+        void onCallFinished(String method, Map<String, Long> phaseMicros, boolean failed);
+    }
+
     private static final String TAG = "FlutterSecureStoragePl";
+    private static final String CHANNEL_NAME = "plugins.it_nomads.com/flutter_secure_storage";
+    private static final String CHANGES_CHANNEL_NAME = "plugins.it_nomads.com/flutter_secure_storage/changes";
     private MethodChannel channel;
+    private EventChannel changesChannel;
+    private ChangeEventStream changeEvents;
+    private final int workerPoolSize;
+    // Kept across engine attachments, so the numbers cover the whole process.
+    private final MetricsRecorder metrics = new MetricsRecorder();
+    private Context applicationContext;
     private FlutterSecureStorage secureStorage;
-    private HandlerThread workerThread;
-    private Handler workerThreadHandler;
+    private KeyedExecutor workerExecutor;
+    private ReplyDispatcher replyDispatcher;
+    // Null if the messenger can't run handlers on background threads. Calls then arrive on the main
+    // thread and replies always go through it.
+    private BinaryMessenger.TaskQueue backgroundTaskQueue;
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            secureStorage.clearValueCache();
+        }
+
+        @Override
+        public void onLowMemory() {
+            secureStorage.clearValueCache();
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+    };
+
+    public FlutterSecureStoragePlugin() {
+        this(KeyedExecutor.getDefaultPoolSize());
+    }
+
+    /**
+     * @param workerPoolSize the maximum number of method calls that run in parallel until a call
+     *                       sets the workerPoolSize option.
+     */
+    public FlutterSecureStoragePlugin(int workerPoolSize) {
+        if (workerPoolSize < 1) {
+            throw new IllegalArgumentException("workerPoolSize must be at least 1");
+        }
+        this.workerPoolSize = workerPoolSize;
+    }
 
     public void initInstance(BinaryMessenger messenger, Context context) {
         try {
-            secureStorage = new FlutterSecureStorage(context);
+            secureStorage = new FlutterSecureStorage(context, metrics);
+            applicationContext = context.getApplicationContext();
+            // Decrypted values must not outlive memory pressure.
+            applicationContext.registerComponentCallbacks(memoryCallbacks);
 
-            workerThread = new HandlerThread("com.it_nomads.fluttersecurestorage.worker");
-            workerThread.start();
-            workerThreadHandler = new Handler(workerThread.getLooper());
+            workerExecutor = new KeyedExecutor(workerPoolSize);
+            replyDispatcher = new ReplyDispatcher();
+            backgroundTaskQueue = makeBackgroundTaskQueue(messenger);
 
-            channel = new MethodChannel(messenger, "plugins.it_nomads.com/flutter_secure_storage");
+            if (backgroundTaskQueue != null) {
+                // Calls are decoded and handed to the workers without passing through the main thread.
+                channel = new MethodChannel(messenger, CHANNEL_NAME, StandardMethodCodec.INSTANCE, backgroundTaskQueue);
+            } else {
+                channel = new MethodChannel(messenger, CHANNEL_NAME);
+            }
             channel.setMethodCallHandler(this);
+
+            changeEvents = new ChangeEventStream();
+            changesChannel = new EventChannel(messenger, CHANGES_CHANNEL_NAME);
+            changesChannel.setStreamHandler(changeEvents);
         } catch (Exception e) {
             Log.e(TAG, "Registration failed", e);
         }
     }
 
+    /**
+     * Returns null for embeddings without background task queues.
+     */
+    private static BinaryMessenger.TaskQueue makeBackgroundTaskQueue(BinaryMessenger messenger) {
+        try {
+            return messenger.makeBackgroundTaskQueue();
+        } catch (UnsupportedOperationException | NoSuchMethodError e) {
+            Log.i(TAG, "Background task queues are not supported, using the main thread");
+            return null;
+        }
+    }
+
+    /**
+     * @param listener receives the timings of every method call from now on, null to stop.
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        metrics.setListener(listener);
+    }
+
     @Override
     public void onAttachedToEngine(FlutterPluginBinding binding) {
         initInstance(binding.getBinaryMessenger(), binding.getApplicationContext());
@@ -51,26 +145,107 @@ public class FlutterSecureStoragePlugin implements MethodCallHandler, FlutterPlu
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         if (channel != null) {
-            workerThread.quitSafely();
-            workerThread = null;
-
+            // Unregister first, so no call that is delivered on the task queue meanwhile finds the workers stopped.
             channel.setMethodCallHandler(null);
             channel = null;
+            changesChannel.setStreamHandler(null);
+            changesChannel = null;
+            // The sink belongs to the detached engine, calls that are still running must not use it.
+            changeEvents.onCancel(null);
+
+            workerExecutor.shutdown();
+            workerExecutor = null;
+            replyDispatcher = null;
+            backgroundTaskQueue = null;
+        }
+        if (applicationContext != null) {
+            applicationContext.unregisterComponentCallbacks(memoryCallbacks);
+            applicationContext = null;
+        }
+        if (secureStorage != null) {
+            // Changes of calls that are still running are persisted by their own write-behind delay.
+            try {
+                secureStorage.flush();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to persist pending changes", e);
+            }
+            secureStorage.clearValueCache();
         }
         secureStorage = null;
     }
 
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull Result rawResult) {
-        MethodResultWrapper result = new MethodResultWrapper(rawResult);
-        // Run all method calls inside the worker thread instead of the platform thread.
-        workerThreadHandler.post(new MethodRunner(call, result));
+        if (call.method.equals("getMetrics") || call.method.equals("getStats")) {
+            rawResult.success(getMetrics());
+            return;
+        }
+        final StorageOptions options;
+        try {
+            options = secureStorage.getOptions(getOptionsFromCall(call));
+        } catch (Exception e) {
+            rawResult.error("Invalid options", call.method, e.getMessage());
+            return;
+        }
+        if (options.workerPoolSize > 0 && options.workerPoolSize != workerExecutor.getPoolSize()) {
+            workerExecutor.setPoolSize(options.workerPoolSize);
+        }
+        MethodResultWrapper result = new MethodResultWrapper(rawResult, getReplyOnBackgroundThread(options) ? null : replyDispatcher, call.method, metrics);
+        // Run all method calls on the worker pool instead of the platform thread.
+        // Calls on the same key run in order, calls on the whole file wait for everything before them.
+        try {
+            workerExecutor.execute(options.sharedPreferencesName, getOrderingKey(call, options), new MethodRunner(call, options, result));
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Failed to schedule " + call.method, e);
+            result.error("Exception encountered", call.method, e.getMessage());
+        }
+    }
+
+    private boolean getReplyOnBackgroundThread(StorageOptions options) {
+        return backgroundTaskQueue != null && options.replyOnBackgroundThread;
+    }
+
+    /**
+     * Returns the worker pool and value cache statistics together with the per method histograms
+     * and failure counters of {@link MetricsRecorder#snapshot()}.
+     */
+    private Map<String, Object> getMetrics() {
+        Map<String, Object> stats = metrics.snapshot();
+        stats.put("poolSize", workerExecutor.getPoolSize());
+        stats.put("queueDepth", workerExecutor.getQueueDepth());
+        stats.put("completedCalls", workerExecutor.getCompletedTaskCount());
+        stats.put("averageWaitMicros", workerExecutor.getAverageWaitNanos() / 1000);
+        stats.put("maxWaitMicros", workerExecutor.getMaxWaitNanos() / 1000);
+        stats.put("valueCacheEntries", secureStorage.getValueCacheEntries());
+        stats.put("valueCacheHits", secureStorage.getValueCacheHits());
+        stats.put("valueCacheMisses", secureStorage.getValueCacheMisses());
+        return stats;
+    }
+
+    private String getOrderingKey(MethodCall call, StorageOptions options) {
+        switch (call.method) {
+            case "write":
+            case "read":
+            case "writeBytes":
+            case "readBytes":
+            case "containsKey":
+            case "delete":
+                return getKeyFromCall(call, options);
+            default:
+                return null;
+        }
     }
 
     @SuppressWarnings("unchecked")
-    private String getKeyFromCall(MethodCall call) {
+    private Map<String, Object> getOptionsFromCall(MethodCall call) {
+        Object options = call.arguments instanceof Map ? ((Map<String, Object>) call.arguments).get("options") : null;
+        return options != null ? (Map<String, Object>) options : Collections.<String, Object>emptyMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getKeyFromCall(MethodCall call, StorageOptions options) {
         Map<String, Object> arguments = (Map<String, Object>) call.arguments;
-        return addPrefixToKey((String) arguments.get("key"));
+        return addPrefixToKey((String) arguments.get("key"), options);
     }
 
     @SuppressWarnings("unchecked")
@@ -79,102 +254,255 @@ public class FlutterSecureStoragePlugin implements MethodCallHandler, FlutterPlu
         return (String) arguments.get("value");
     }
 
-    private String addPrefixToKey(String key) {
-        return secureStorage.ELEMENT_PREFERENCES_KEY_PREFIX + "_" + key;
+    @SuppressWarnings("unchecked")
+    private List<String> getKeysFromCall(MethodCall call, StorageOptions options) {
+        Map<String, Object> arguments = (Map<String, Object>) call.arguments;
+        List<String> keys = (List<String>) arguments.get("keys");
+        List<String> prefixedKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            prefixedKeys.add(addPrefixToKey(key, options));
+        }
+        return prefixedKeys;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> getValuesFromCall(MethodCall call, StorageOptions options) {
+        Map<String, Object> arguments = (Map<String, Object>) call.arguments;
+        Map<String, String> values = (Map<String, String>) arguments.get("values");
+        Map<String, String> prefixedValues = new HashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            prefixedValues.put(addPrefixToKey(entry.getKey(), options), entry.getValue());
+        }
+        return prefixedValues;
+    }
+
+    private String removePrefixFromKey(String key, StorageOptions options) {
+        return key.substring(options.keyPrefix.length() + 1);
+    }
+
+    private String addPrefixToKey(String key, StorageOptions options) {
+        return options.keyPrefix + "_" + key;
     }
 
     /**
-     * MethodChannel.Result wrapper that responds on the platform thread.
+     * MethodChannel.Result wrapper that responds on the platform thread, unless the call asked for
+     * the reply to be sent from the worker thread.
      */
     static class MethodResultWrapper implements Result {
 
         private final Result methodResult;
-        private final Handler handler = new Handler(Looper.getMainLooper());
+        private final ReplyDispatcher dispatcher;
+        private final String method;
+        private final MetricsRecorder metrics;
 
-        MethodResultWrapper(Result methodResult) {
+        /**
+         * @param dispatcher delivers the reply on the main thread, or null to reply on the calling thread.
+         */
+        MethodResultWrapper(Result methodResult, ReplyDispatcher dispatcher, String method, MetricsRecorder metrics) {
             this.methodResult = methodResult;
+            this.dispatcher = dispatcher;
+            this.method = method;
+            this.metrics = metrics;
         }
 
         @Override
         public void success(final Object result) {
-            handler.post(() -> methodResult.success(result));
+            reply(() -> methodResult.success(result));
         }
 
         @Override
         public void error(@NonNull final String errorCode, final String errorMessage, final Object errorDetails) {
-            handler.post(() -> methodResult.error(errorCode, errorMessage, errorDetails));
+            reply(() -> methodResult.error(errorCode, errorMessage, errorDetails));
         }
 
         @Override
         public void notImplemented() {
-            handler.post(methodResult::notImplemented);
+            reply(methodResult::notImplemented);
+        }
+
+        private void reply(Runnable reply) {
+            // Covers the wait for the main thread as well as encoding and sending the reply.
+            final long repliedAt = System.nanoTime();
+            final Runnable timedReply = () -> {
+                reply.run();
+                metrics.recordPhase(method, MetricsRecorder.Phase.REPLY, System.nanoTime() - repliedAt);
+            };
+            if (dispatcher != null) {
+                dispatcher.dispatch(timedReply);
+            } else {
+                timedReply.run();
+            }
         }
     }
 
     /**
-     * Wraps the functionality of onMethodCall() in a Runnable for execution in the worker thread.
+     * Wraps the functionality of onMethodCall() in a Runnable for execution in the worker pool.
      */
     class MethodRunner implements Runnable {
         private final MethodCall call;
+        private final StorageOptions options;
         private final Result result;
+        private final long submittedAt = System.nanoTime();
 
-        MethodRunner(MethodCall call, Result result) {
+        MethodRunner(MethodCall call, StorageOptions options, Result result) {
             this.call = call;
+            this.options = options;
             this.result = result;
         }
 
         @SuppressWarnings("unchecked")
         @Override
         public void run() {
+            final long startedAt = System.nanoTime();
+            metrics.beginCall();
+            boolean failed = false;
             boolean resetOnError = false;
             try {
-                secureStorage.options = (Map<String, Object>) ((Map<String, Object>) call.arguments).get("options");
-                resetOnError = secureStorage.getResetOnError();
+                resetOnError = options.resetOnError;
                 switch (call.method) {
                     case "write": {
-                        String key = getKeyFromCall(call);
+                        String key = getKeyFromCall(call, options);
                         String value = getValueFromCall(call);
 
                         if (value != null) {
-                            secureStorage.write(key, value);
+                            secureStorage.write(options, key, value);
                             result.success(null);
+                            if (changeEvents.isListening()) {
+                                changeEvents.emitWrite(options, removePrefixFromKey(key, options), value);
+                            }
                         } else {
                             result.error("null", null, null);
                         }
                         break;
                     }
                     case "read": {
-                        String key = getKeyFromCall(call);
+                        String key = getKeyFromCall(call, options);
 
-                        if (secureStorage.containsKey(key)) {
-                            String value = secureStorage.read(key);
-                            result.success(value);
+                        String value = secureStorage.read(options, key);
+                        result.success(value);
+                        break;
+                    }
+                    case "writeBytes": {
+                        String key = getKeyFromCall(call, options);
+                        byte[] value = (byte[]) ((Map<String, Object>) call.arguments).get("value");
+
+                        if (value != null) {
+                            secureStorage.writeBytes(options, key, value);
+                            result.success(null);
+                            if (changeEvents.isListening()) {
+                                changeEvents.emitWrite(options, removePrefixFromKey(key, options), value);
+                            }
                         } else {
+                            result.error("null", null, null);
+                        }
+                        break;
+                    }
+                    case "readBytes": {
+                        String key = getKeyFromCall(call, options);
+
+                        byte[] value = secureStorage.readBytes(options, key);
+                        result.success(value);
+                        break;
+                    }
+                    case "writeBatch": {
+                        Map<String, String> values = getValuesFromCall(call, options);
+
+                        if (!values.containsValue(null)) {
+                            secureStorage.writeBatch(options, values);
                             result.success(null);
+                            if (changeEvents.isListening()) {
+                                for (Map.Entry<String, String> entry : values.entrySet()) {
+                                    changeEvents.emitWrite(options, removePrefixFromKey(entry.getKey(), options), entry.getValue());
+                                }
+                            }
+                        } else {
+                            result.error("null", null, null);
+                        }
+                        break;
+                    }
+                    case "readMany": {
+                        Map<String, String> values = secureStorage.readMany(options, getKeysFromCall(call, options));
+
+                        Map<String, String> unprefixedValues = new HashMap<>();
+                        for (Map.Entry<String, String> entry : values.entrySet()) {
+                            unprefixedValues.put(removePrefixFromKey(entry.getKey(), options), entry.getValue());
+                        }
+                        result.success(unprefixedValues);
+                        break;
+                    }
+                    case "deleteMany": {
+                        List<String> keys = getKeysFromCall(call, options);
+
+                        secureStorage.deleteMany(options, keys);
+                        result.success(null);
+                        if (changeEvents.isListening()) {
+                            for (String key : keys) {
+                                changeEvents.emitDelete(options, removePrefixFromKey(key, options));
+                            }
                         }
                         break;
                     }
                     case "readAll": {
-                        result.success(secureStorage.readAll());
+                        result.success(secureStorage.readAll(options));
+                        break;
+                    }
+                    case "readAllPage": {
+                        Map<String, Object> arguments = (Map<String, Object>) call.arguments;
+                        String cursor = (String) arguments.get("cursor");
+                        int limit = (Integer) arguments.get("limit");
+
+                        Map<String, String> values = secureStorage.readAllPage(options, cursor, limit);
+                        String nextCursor = null;
+                        if (values.size() == limit) {
+                            for (String key : values.keySet()) {
+                                nextCursor = key;
+                            }
+                        }
+
+                        Map<String, Object> page = new HashMap<>();
+                        page.put("values", values);
+                        page.put("nextCursor", nextCursor);
+                        result.success(page);
+                        break;
+                    }
+                    case "readKeys": {
+                        result.success(secureStorage.readKeys(options));
+                        break;
+                    }
+                    case "countKeys": {
+                        result.success(secureStorage.countKeys(options));
                         break;
                     }
                     case "containsKey": {
-                        String key = getKeyFromCall(call);
+                        String key = getKeyFromCall(call, options);
 
-                        boolean containsKey = secureStorage.containsKey(key);
+                        boolean containsKey = secureStorage.containsKey(options, key);
                         result.success(containsKey);
                         break;
                     }
                     case "delete": {
-                        String key = getKeyFromCall(call);
+                        String key = getKeyFromCall(call, options);
 
-                        secureStorage.delete(key);
+                        secureStorage.delete(options, key);
                         result.success(null);
+                        if (changeEvents.isListening()) {
+                            changeEvents.emitDelete(options, removePrefixFromKey(key, options));
+                        }
+                        break;
+                    }
+                    case "flush": {
+                        secureStorage.flush();
+                        result.success(null);
+                        break;
+                    }
+                    case "warmUp": {
+                        result.success(secureStorage.warmUp(options));
                         break;
                     }
                     case "deleteAll": {
-                        secureStorage.deleteAll();
+                        secureStorage.deleteAll(options);
                         result.success(null);
+                        changeEvents.emitDeleteAll(options);
                         break;
                     }
                     default:
@@ -184,16 +512,21 @@ public class FlutterSecureStoragePlugin implements MethodCallHandler, FlutterPlu
             } catch (FileNotFoundException e) {
                 Log.i("Creating sharedPrefs", e.getLocalizedMessage());
             } catch (Exception e) {
+                failed = true;
                 if (resetOnError) {
                     try {
-                        secureStorage.deleteAll();
+                        secureStorage.deleteAll(options);
+                        metrics.recordReset();
                         result.success("Data has been reset");
+                        changeEvents.emitDeleteAll(options);
                     } catch (Exception ex) {
                         handleException(ex);
                     }
                 } else {
                     handleException(e);
                 }
+            } finally {
+                metrics.endCall(call.method, startedAt - submittedAt, System.nanoTime() - startedAt, failed);
             }
         }
 
@@ -0,0 +1,257 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a bounded pool of worker threads while keeping the submission order of tasks
+ * that touch the same key of the same preferences file.
+ * A task without a key affects the whole file, so it waits for every earlier task of that file
+ * and every later task of that file waits for it.
+ */
+class KeyedExecutor {
+
+    private static final String TAG = "KeyedExecutor";
+    private static final String THREAD_NAME = "com.it_nomads.fluttersecurestorage.worker";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor pool;
+    // Guarded by "this". Holds the waiting and running tasks of every file.
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private int queueDepth;
+    private boolean shutdown;
+
+    private final AtomicLong startedTasks = new AtomicLong();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    KeyedExecutor(int poolSize) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> new Thread(runnable, THREAD_NAME + "-" + threadCount.incrementAndGet());
+        pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    static int getDefaultPoolSize() {
+        return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Schedules a task for the given preferences file.
+     *
+     * @param file the preferences file the task works on.
+     * @param key  the key the task works on, or null if it works on the whole file.
+     * @throws RejectedExecutionException if the executor was shut down or the task could not be started.
+     */
+    synchronized void execute(String file, String key, Runnable runnable) {
+        if (shutdown) {
+            throw new RejectedExecutionException("The executor was shut down");
+        }
+        Lane lane = lanes.get(file);
+        if (lane == null) {
+            lane = new Lane();
+            lanes.put(file, lane);
+        }
+        final Task task = new Task(file, key, runnable);
+        queueDepth++;
+        if (!submit(lane, task)) {
+            throw new RejectedExecutionException("The task could not be started");
+        }
+    }
+
+    /**
+     * Lets already submitted tasks finish, including those still waiting for their key, and stops
+     * the worker threads afterwards.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        if (lanes.isEmpty()) {
+            pool.shutdown();
+        }
+    }
+
+    int getPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Changes the number of tasks that run in parallel. Running tasks finish on their thread, surplus
+     * threads stop once they are idle.
+     */
+    synchronized void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        // The core size must never exceed the maximum size, so the order depends on the direction.
+        if (poolSize > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(poolSize);
+            pool.setCorePoolSize(poolSize);
+        } else if (poolSize < pool.getMaximumPoolSize()) {
+            pool.setCorePoolSize(poolSize);
+            pool.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Number of tasks that were submitted but have not started yet.
+     */
+    synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    long getCompletedTaskCount() {
+        return completedTasks.get();
+    }
+
+    long getAverageWaitNanos() {
+        final long started = startedTasks.get();
+        return started == 0 ? 0 : totalWaitNanos.get() / started;
+    }
+
+    long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * Adds a task to its lane and starts it right away if nothing before it conflicts.
+     *
+     * @return false if the task had to be started but the pool rejected it.
+     */
+    private boolean submit(Lane lane, Task task) {
+        // Everything behind a file-wide task waits for it, so it keeps its place in the order.
+        if (!lane.blocked.isEmpty() || task.key == null) {
+            lane.blocked.add(task);
+            return lane.blocked.size() > 1 || !lane.keys.isEmpty() || start(lane, task);
+        }
+        return submitKeyed(lane, task);
+    }
+
+    private boolean submitKeyed(Lane lane, Task task) {
+        ArrayDeque<Task> queue = lane.keys.get(task.key);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            lane.keys.put(task.key, queue);
+            queue.add(task);
+            return start(lane, task);
+        }
+        queue.add(task);
+        return true;
+    }
+
+    private boolean start(Lane lane, Task task) {
+        task.started = true;
+        queueDepth--;
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Failed to start task", e);
+            // Drop the task like a finished one, so the tasks behind it don't wait forever.
+            remove(lane, task);
+            return false;
+        }
+    }
+
+    private synchronized void complete(Task task) {
+        remove(lanes.get(task.file), task);
+    }
+
+    /**
+     * Removes a started task from its lane and starts the tasks that only waited for it.
+     */
+    private void remove(Lane lane, Task task) {
+        if (task.key == null) {
+            lane.blocked.poll();
+        } else {
+            final ArrayDeque<Task> queue = lane.keys.get(task.key);
+            queue.poll();
+            if (queue.isEmpty()) {
+                lane.keys.remove(task.key);
+            } else {
+                start(lane, queue.peek());
+            }
+        }
+        if (lane.keys.isEmpty()) {
+            release(lane);
+        }
+        if (lane.keys.isEmpty() && lane.blocked.isEmpty() && lanes.get(task.file) == lane) {
+            lanes.remove(task.file);
+            if (shutdown && lanes.isEmpty()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Starts the tasks behind the first file-wide task once no keyed task runs anymore: the
+     * file-wide task itself, or the keyed tasks up to the next file-wide task if it already ran.
+     */
+    private void release(Lane lane) {
+        while (!lane.blocked.isEmpty()) {
+            final Task next = lane.blocked.peek();
+            if (next.key == null) {
+                if (!next.started && lane.keys.isEmpty()) {
+                    start(lane, next);
+                }
+                return;
+            }
+            lane.blocked.poll();
+            submitKeyed(lane, next);
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        startedTasks.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    private class Task implements Runnable {
+        final String file;
+        final String key;
+        final Runnable runnable;
+        final long submittedAt = System.nanoTime();
+        boolean started;
+
+        Task(String file, String key, Runnable runnable) {
+            this.file = file;
+            this.key = key;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            recordWait(System.nanoTime() - submittedAt);
+            try {
+                runnable.run();
+            } finally {
+                completedTasks.incrementAndGet();
+                complete(this);
+            }
+        }
+    }
+
+    /**
+     * The tasks of one file. Keyed tasks run in parallel with those of other keys, each key queue
+     * holds its running task at the head. Tasks from the first file-wide task on wait in submission
+     * order until every keyed task before them finished.
+     */
+    private static class Lane {
+        final Map<String, ArrayDeque<Task>> keys = new HashMap<>();
+        final ArrayDeque<Task> blocked = new ArrayDeque<>();
+    }
+}
@@ -0,0 +1,224 @@
+package com.it_nomads.fluttersecurestorage;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records per method latency histograms and failure counters without taking locks.
+ * The phases of a call are summed up per worker thread while it runs and added to the
+ * histograms of its method when it ends. Phases may overlap, crypto and disk time spent while
+ * initializing is part of the init phase as well.
+ */
+class MetricsRecorder {
+
+    enum Phase {
+        QUEUE_WAIT("queueWait"),
+        INIT("init"),
+        CRYPTO("crypto"),
+        DISK("disk"),
+        REPLY("reply"),
+        TOTAL("total");
+
+        final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final AtomicLong initFailures = new AtomicLong();
+    private final AtomicLong encryptedSharedPreferencesFallbacks = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final ThreadLocal<long[]> callPhaseNanos = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[PHASES.length];
+        }
+    };
+    private volatile FlutterSecureStoragePlugin.MetricsListener listener;
+
+    void setListener(FlutterSecureStoragePlugin.MetricsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts collecting the phases of a call on the current thread.
+     */
+    void beginCall() {
+        final long[] phases = callPhaseNanos.get();
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = 0;
+        }
+    }
+
+    /**
+     * Adds time spent in a phase to the call running on the current thread.
+     */
+    void addPhase(Phase phase, long nanos) {
+        callPhaseNanos.get()[phase.ordinal()] += nanos;
+    }
+
+    void endCall(String method, long queueWaitNanos, long totalNanos, boolean failed) {
+        final long[] phases = callPhaseNanos.get();
+        phases[Phase.QUEUE_WAIT.ordinal()] = queueWaitNanos;
+        phases[Phase.TOTAL.ordinal()] = totalNanos;
+
+        final MethodMetrics metrics = getMethodMetrics(method);
+        metrics.calls.incrementAndGet();
+        if (failed) {
+            metrics.errors.incrementAndGet();
+        }
+        for (Phase phase : PHASES) {
+            if (phase != Phase.REPLY) {
+                metrics.histograms[phase.ordinal()].record(phases[phase.ordinal()]);
+            }
+        }
+
+        final FlutterSecureStoragePlugin.MetricsListener currentListener = listener;
+        if (currentListener != null) {
+            Map<String, Long> phaseMicros = new LinkedHashMap<>();
+            for (Phase phase : PHASES) {
+                if (phase != Phase.REPLY) {
+                    phaseMicros.put(phase.name, phases[phase.ordinal()] / 1000);
+                }
+            }
+            currentListener.onCallFinished(method, phaseMicros, failed);
+        }
+    }
+
+    /**
+     * Records a phase that happens outside the call, such as sending its reply.
+     */
+    void recordPhase(String method, Phase phase, long nanos) {
+        getMethodMetrics(method).histograms[phase.ordinal()].record(nanos);
+    }
+
+    void recordInitFailure() {
+        initFailures.incrementAndGet();
+    }
+
+    void recordEncryptedSharedPreferencesFallback() {
+        encryptedSharedPreferencesFallbacks.incrementAndGet();
+    }
+
+    void recordReset() {
+        resets.incrementAndGet();
+    }
+
+    /**
+     * Returns the counters and, for every method that was called, its call and error counts and
+     * a summary of each phase histogram.
+     */
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("initFailures", initFailures.get());
+        snapshot.put("encryptedSharedPreferencesFallbacks", encryptedSharedPreferencesFallbacks.get());
+        snapshot.put("resets", resets.get());
+
+        Map<String, Object> methodSnapshots = new HashMap<>();
+        for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+            methodSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        snapshot.put("methods", methodSnapshots);
+        return snapshot;
+    }
+
+    private MethodMetrics getMethodMetrics(String method) {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            metrics = new MethodMetrics();
+            MethodMetrics existing = methods.putIfAbsent(method, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    private static class MethodMetrics {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final Histogram[] histograms = new Histogram[PHASES.length];
+
+        MethodMetrics() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("calls", calls.get());
+            snapshot.put("errors", errors.get());
+            for (Phase phase : PHASES) {
+                snapshot.put(phase.name, histograms[phase.ordinal()].snapshot());
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Histogram with power of two microsecond buckets. Bucket 0 counts durations below one
+     * microsecond, bucket i durations below 2^i microseconds, the last one everything longer.
+     */
+    private static class Histogram {
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            final long micros = Math.max(0, nanos / 1000);
+            final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            totalMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        /**
+         * Percentiles are reported as the upper bound of the bucket they fall into.
+         */
+        Map<String, Object> snapshot() {
+            final long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("count", total);
+            snapshot.put("totalMicros", totalMicros.get());
+            snapshot.put("maxMicros", maxMicros.get());
+            snapshot.put("p50Micros", getPercentile(counts, total, 50));
+            snapshot.put("p90Micros", getPercentile(counts, total, 90));
+            snapshot.put("p99Micros", getPercentile(counts, total, 99));
+            return snapshot;
+        }
+
+        private long getPercentile(long[] counts, long total, int percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (total * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers method call replies on the main thread through one shared Handler.
+ * Replies that arrive before the main thread ran the previous batch are delivered together by a
+ * single posted runnable, so a burst of replies doesn't queue one message each on the main looper.
+ */
+class ReplyDispatcher {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drain = () -> {
+        // Cleared before draining, a reply added from now on schedules the next batch.
+        scheduled.set(false);
+        Runnable reply;
+        while ((reply = pending.poll()) != null) {
+            reply.run();
+        }
+    };
+
+    void dispatch(Runnable reply) {
+        pending.offer(reply);
+        if (scheduled.compareAndSet(false, true)) {
+            handler.post(drain);
+        }
+    }
+}
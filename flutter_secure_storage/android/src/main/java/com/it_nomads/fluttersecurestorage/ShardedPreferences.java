@@ -0,0 +1,422 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the entries of one preferences file over several files, so that persisting a change
+ * only rewrites the file that holds the changed key.
+ * The first shard is the original file. Keys without an underscore are metadata of the whole file,
+ * such as the stored cipher algorithms. They always stay in the first shard, and that shard is
+ * committed after all others, so metadata is never persisted ahead of the values it describes.
+ * Entries are moved to their shard when a file is opened with a different number of shards.
+ * EncryptedSharedPreferences expects all of its entries and keysets in the original file, so a file
+ * that holds its keysets is never sharded and its keys never leave the first shard.
+ */
+class ShardedPreferences implements SharedPreferences {
+
+    private static final String TAG = "ShardedPreferences";
+    private static final String SHARD_THREAD_NAME = "com.it_nomads.fluttersecurestorage.shard";
+    private static final String SHARD_COUNT_KEY = "FlutterSecureShardCount";
+    private static final int MAX_PARALLEL_SHARDS = 4;
+    private static final Map<String, ShardedPreferences> instances = new HashMap<>();
+    // Opens, reads and commits shards in parallel.
+    private static final ThreadPoolExecutor shardExecutor;
+
+    static {
+        final AtomicInteger threadCount = new AtomicInteger();
+        shardExecutor = new ThreadPoolExecutor(MAX_PARALLEL_SHARDS, MAX_PARALLEL_SHARDS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                runnable -> new Thread(runnable, SHARD_THREAD_NAME + "-" + threadCount.incrementAndGet()));
+        shardExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final SharedPreferences[] shards;
+
+    private ShardedPreferences(SharedPreferences[] shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Opens a file with the given number of shards, moving entries that are stored in another
+     * shard than the one their key belongs to. A file that is not sharded is returned unwrapped.
+     * Every file is sharded only once per process, opening it again with a different number of
+     * shards fails, as the instances handed out before would no longer find their entries.
+     */
+    static SharedPreferences open(final StorageBackend backend, final Context context, final String name, int shardCount) throws IOException {
+        final SharedPreferences first = backend.open(context, name);
+        shardCount = Math.max(1, shardCount);
+        if (shardCount > 1 && StorageBackend.isUsedByEncryptedSharedPreferences(first)) {
+            Log.w(TAG, name + " is used by EncryptedSharedPreferences and is not sharded");
+            shardCount = 1;
+        }
+
+        synchronized (instances) {
+            final String instanceKey = backend + "\0" + name;
+            ShardedPreferences instance = instances.get(instanceKey);
+            if (instance == null) {
+                instance = new ShardedPreferences(openShards(backend, context, name, first, shardCount));
+                instances.put(instanceKey, instance);
+            } else if (instance.shards.length != shardCount) {
+                throw new IllegalStateException(name + " is already open with " + instance.shards.length
+                        + " shards and can't be opened with " + shardCount + " until the app restarts");
+            }
+            return instance.shards.length == 1 ? instance.shards[0] : instance;
+        }
+    }
+
+    private static SharedPreferences[] openShards(final StorageBackend backend, final Context context, final String name,
+                                                  SharedPreferences first, int shardCount) throws IOException {
+        final int previousShardCount = getShardCount(first);
+        if (shardCount == 1 && previousShardCount <= 1) {
+            return new SharedPreferences[]{first};
+        }
+
+        final int openShardCount = Math.max(shardCount, previousShardCount);
+        List<Callable<SharedPreferences>> openers = new ArrayList<>();
+        for (int i = 1; i < openShardCount; i++) {
+            final String shardName = getShardName(name, i);
+            openers.add(() -> backend.open(context, shardName));
+        }
+        final SharedPreferences[] openShards = new SharedPreferences[openShardCount];
+        openShards[0] = first;
+        try {
+            final List<SharedPreferences> opened = runInParallel(openers);
+            for (int i = 1; i < openShardCount; i++) {
+                openShards[i] = opened.get(i - 1);
+            }
+            redistribute(openShards, shardCount);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to open the shards of " + name, e);
+        }
+
+        final SharedPreferences[] shards = new SharedPreferences[shardCount];
+        System.arraycopy(openShards, 0, shards, 0, shardCount);
+        return shards;
+    }
+
+    private static String getShardName(String name, int shard) {
+        return shard == 0 ? name : name + ".shard" + shard;
+    }
+
+    private static int getShardCount(SharedPreferences first) {
+        final String value = first.getString(SHARD_COUNT_KEY, null);
+        return value != null ? Integer.parseInt(value) : 1;
+    }
+
+    private static int getShard(String key, int shardCount) {
+        if (key.indexOf('_') < 0 || key.startsWith(StorageBackend.ENCRYPTED_PREFERENCES_KEY_PREFIX)) {
+            return 0;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    /**
+     * Moves every entry into the shard its key belongs to. Entries are committed to their new shard
+     * before they are removed from the old one, so an interrupted move is repeated on the next open.
+     */
+    private static void redistribute(SharedPreferences[] shards, int shardCount) throws Exception {
+        final Editor[] targets = new Editor[shardCount];
+        final Editor[] sources = new Editor[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            for (Map.Entry<String, ?> entry : shards[i].getAll().entrySet()) {
+                final String key = entry.getKey();
+                if (key.equals(SHARD_COUNT_KEY) || !(entry.getValue() instanceof String)) {
+                    continue;
+                }
+                final int shard = getShard(key, shardCount);
+                if (shard == i) {
+                    continue;
+                }
+                if (targets[shard] == null) {
+                    targets[shard] = shards[shard].edit();
+                }
+                if (sources[i] == null) {
+                    sources[i] = shards[i].edit();
+                }
+                targets[shard].putString(key, (String) entry.getValue());
+                sources[i].remove(key);
+            }
+        }
+        commitAll(targets);
+        commitAll(sources);
+
+        final Editor first = shards[0].edit();
+        if (shardCount > 1) {
+            first.putString(SHARD_COUNT_KEY, String.valueOf(shardCount));
+        } else {
+            first.remove(SHARD_COUNT_KEY);
+        }
+        commit(first);
+    }
+
+    /**
+     * Commits the editors of all shards, the first shard last. Null editors are skipped.
+     */
+    private static void commitAll(final Editor[] editors) throws Exception {
+        List<Callable<Void>> commits = new ArrayList<>();
+        for (int i = 1; i < editors.length; i++) {
+            final Editor editor = editors[i];
+            if (editor != null) {
+                commits.add(() -> {
+                    commit(editor);
+                    return null;
+                });
+            }
+        }
+        runInParallel(commits);
+        if (editors[0] != null) {
+            commit(editors[0]);
+        }
+    }
+
+    private static void commit(Editor editor) throws Exception {
+        if (!editor.commit()) {
+            throw new Exception("Failed to commit preferences");
+        }
+    }
+
+    /**
+     * Runs the first task on the calling thread and the others on the shard threads.
+     */
+    private static <T> List<T> runInParallel(List<Callable<T>> tasks) throws Exception {
+        final List<Future<T>> futures = new ArrayList<>();
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(shardExecutor.submit(tasks.get(i)));
+        }
+        final List<T> results = new ArrayList<>();
+        Exception failure = null;
+        if (!tasks.isEmpty()) {
+            try {
+                results.add(tasks.get(0).call());
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private SharedPreferences getShard(String key) {
+        return shards[getShard(key, shards.length)];
+    }
+
+    /**
+     * Lists the keys of all shards without reading any value from a log.
+     */
+    Set<String> keySet() {
+        List<Callable<Set<String>>> readers = new ArrayList<>();
+        for (final SharedPreferences shard : shards) {
+            readers.add(() -> StorageBackend.getKeys(shard));
+        }
+        Set<String> keys = new HashSet<>();
+        try {
+            for (Set<String> shardKeys : runInParallel(readers)) {
+                keys.addAll(shardKeys);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read the shards", e);
+        }
+        keys.remove(SHARD_COUNT_KEY);
+        return keys;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        List<Callable<Map<String, ?>>> readers = new ArrayList<>();
+        for (final SharedPreferences shard : shards) {
+            readers.add(shard::getAll);
+        }
+        Map<String, Object> all = new HashMap<>();
+        try {
+            for (Map<String, ?> shardEntries : runInParallel(readers)) {
+                all.putAll(shardEntries);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read the shards", e);
+        }
+        all.remove(SHARD_COUNT_KEY);
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return getShard(key).getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return getShard(key).getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return getShard(key).getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return getShard(key).getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return getShard(key).getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getShard(key).getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getShard(key).contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new ShardedEditor();
+    }
+
+    /**
+     * The listener is registered with every shard and called with the shard that changed.
+     */
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        for (SharedPreferences shard : shards) {
+            shard.registerOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        for (SharedPreferences shard : shards) {
+            shard.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    /**
+     * Collects the changes per shard, only shards with changes are committed.
+     */
+    private class ShardedEditor implements Editor {
+        private final Editor[] editors = new Editor[shards.length];
+
+        private Editor getEditor(int shard) {
+            if (editors[shard] == null) {
+                editors[shard] = shards[shard].edit();
+            }
+            return editors[shard];
+        }
+
+        private Editor getEditor(String key) {
+            return getEditor(getShard(key, shards.length));
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            getEditor(key).putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            getEditor(key).putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            getEditor(key).putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            getEditor(key).putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            getEditor(key).putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            getEditor(key).putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            getEditor(key).remove(key);
+            return this;
+        }
+
+        /**
+         * Clears every shard. The number of shards is kept, clearing is applied before puts.
+         */
+        @Override
+        public Editor clear() {
+            for (int i = 0; i < shards.length; i++) {
+                getEditor(i).clear();
+            }
+            getEditor(0).putString(SHARD_COUNT_KEY, String.valueOf(shards.length));
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            try {
+                commitAll(editors);
+                return true;
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to commit the shards", e);
+                return false;
+            }
+        }
+
+        @Override
+        public void apply() {
+            for (int i = 1; i < editors.length; i++) {
+                if (editors[i] != null) {
+                    editors[i].apply();
+                }
+            }
+            if (editors[0] != null) {
+                editors[0].apply();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where the entries of a preferences file are persisted.
+ * Every backend exposes the file as SharedPreferences, so the ciphers, the re-encryption and the
+ * migration to EncryptedSharedPreferences work the same way on all of them.
+ */
+enum StorageBackend {
+    SHARED_PREFERENCES("sharedPreferences") {
+        @Override
+        SharedPreferences open(Context context, String name) {
+            return context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        }
+    },
+    APPEND_LOG("appendLog") {
+        @Override
+        SharedPreferences open(Context context, String name) throws IOException {
+            return openLog(context, name, false);
+        }
+    },
+    /**
+     * The same log as {@link #APPEND_LOG}, with values read through a memory mapping of the file.
+     */
+    MAPPED_LOG("mappedLog") {
+        @Override
+        SharedPreferences open(Context context, String name) throws IOException {
+            return openLog(context, name, true);
+        }
+    };
+
+    private static final String LOG_DIRECTORY = "flutter_secure_storage";
+    // EncryptedSharedPreferences keeps its keysets next to its entries in the XML file of a store.
+    static final String ENCRYPTED_PREFERENCES_KEY_PREFIX = "__androidx_security_crypto_encrypted_prefs_";
+    private static final String ENCRYPTED_PREFERENCES_KEY_KEYSET = ENCRYPTED_PREFERENCES_KEY_PREFIX + "key_keyset__";
+    private static final String ENCRYPTED_PREFERENCES_VALUE_KEYSET = ENCRYPTED_PREFERENCES_KEY_PREFIX + "value_keyset__";
+
+    private final String optionValue;
+
+    StorageBackend(String optionValue) {
+        this.optionValue = optionValue;
+    }
+
+    abstract SharedPreferences open(Context context, String name) throws IOException;
+
+    static StorageBackend fromOption(Object value) {
+        for (StorageBackend backend : values()) {
+            if (backend.optionValue.equals(value)) {
+                return backend;
+            }
+        }
+        return SHARED_PREFERENCES;
+    }
+
+    /**
+     * Lists the keys of a file. Unlike {@code getAll().keySet()} this doesn't read any value from a log.
+     */
+    static Set<String> getKeys(SharedPreferences preferences) {
+        if (preferences instanceof AppendLogPreferences) {
+            return ((AppendLogPreferences) preferences).keySet();
+        }
+        if (preferences instanceof ShardedPreferences) {
+            return ((ShardedPreferences) preferences).keySet();
+        }
+        return preferences.getAll().keySet();
+    }
+
+    /**
+     * Whether EncryptedSharedPreferences keeps its keysets in the file. It can't find them anywhere
+     * else, so such a file must never be moved or cleared.
+     */
+    static boolean isUsedByEncryptedSharedPreferences(SharedPreferences preferences) {
+        return preferences.contains(ENCRYPTED_PREFERENCES_KEY_KEYSET) || preferences.contains(ENCRYPTED_PREFERENCES_VALUE_KEYSET);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(SharedPreferences.Editor editor, String key, Object value) {
+        if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        }
+    }
+
+    /**
+     * Opens the log of a file and imports the entries the file had before it was moved into a log.
+     */
+    private static SharedPreferences openLog(Context context, String name, boolean mapped) throws IOException {
+        AppendLogPreferences preferences = AppendLogPreferences.open(getLogFile(context, name), mapped);
+        importSharedPreferences(context.getSharedPreferences(name, Context.MODE_PRIVATE), preferences);
+        return preferences;
+    }
+
+    static File getLogFile(Context context, String name) {
+        return new File(new File(context.getFilesDir(), LOG_DIRECTORY), name + ".log");
+    }
+
+    /**
+     * Moves all entries of a file that was written with {@link #SHARED_PREFERENCES} into a new log.
+     * The log is committed before the old file is cleared, so an interrupted import leaves a
+     * complete copy behind and is not repeated. A file that EncryptedSharedPreferences uses is left
+     * alone, the log then starts empty.
+     */
+    static void importSharedPreferences(SharedPreferences source, AppendLogPreferences target) {
+        if (!target.isEmpty() || isUsedByEncryptedSharedPreferences(source)) {
+            return;
+        }
+        final Map<String, ?> entries = source.getAll();
+        if (entries.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = target.edit();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            put(editor, entry.getKey(), entry.getValue());
+        }
+        if (editor.commit()) {
+            source.edit().clear().commit();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.os.Build;
+
+import java.util.Map;
+
+/**
+ * Options of a method call, parsed once per distinct options map.
+ * Instances are immutable and shared by every call that sends an equal map, see
+ * {@link FlutterSecureStorage#getOptions(Map)}.
+ */
+final class StorageOptions {
+
+    private static final int DEFAULT_WRITE_BEHIND_MAX_PENDING = 16;
+
+    final boolean resetOnError;
+    final boolean useEncryptedSharedPreferences;
+    final String sharedPreferencesName;
+    final String keyPrefix;
+    // Raw algorithm names, null if the option is not set.
+    final String keyCipherAlgorithm;
+    final String storageCipherAlgorithm;
+    final StorageBackend storageBackend;
+    /**
+     * Maximum number of decrypted values kept in memory, 0 disables the cache.
+     */
+    final int valueCacheSize;
+    final long valueCacheTtlMillis;
+    final boolean replyOnBackgroundThread;
+    /**
+     * How long encrypted writes and deletes may stay in memory before they are persisted, 0 persists
+     * every change right away.
+     */
+    final long writeBehindMillis;
+    final int writeBehindMaxPending;
+    /**
+     * Number of files the entries are spread over, 1 keeps them in a single file.
+     */
+    final int shardCount;
+    /**
+     * Maximum number of calls that run in parallel, 0 keeps the current size of the worker pool.
+     */
+    final int workerPoolSize;
+    /**
+     * Identifies the storage state built for these options, equal for options that only differ
+     * in settings which don't affect it.
+     */
+    final String profileKey;
+
+    StorageOptions(Map<String, Object> options, String defaultSharedPreferencesName, String defaultKeyPrefix) {
+        resetOnError = "true".equals(options.get("resetOnError"));
+        useEncryptedSharedPreferences = "true".equals(options.get("encryptedSharedPreferences")) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        sharedPreferencesName = getNonEmptyString(options, "sharedPreferencesName", defaultSharedPreferencesName);
+        keyPrefix = getNonEmptyString(options, "preferencesKeyPrefix", defaultKeyPrefix);
+        keyCipherAlgorithm = getString(options, "keyCipherAlgorithm");
+        storageCipherAlgorithm = getString(options, "storageCipherAlgorithm");
+        storageBackend = StorageBackend.fromOption(options.get("storageBackend"));
+        final String cacheSize = getNonEmptyString(options, "valueCacheSize", null);
+        valueCacheSize = cacheSize != null ? Integer.parseInt(cacheSize) : 0;
+        final String cacheTtlMillis = getNonEmptyString(options, "valueCacheTtlMillis", null);
+        valueCacheTtlMillis = cacheTtlMillis != null ? Long.parseLong(cacheTtlMillis) : 0;
+        replyOnBackgroundThread = "true".equals(options.get("replyOnBackgroundThread"));
+        final String writeBehind = getNonEmptyString(options, "writeBehindMillis", null);
+        writeBehindMillis = writeBehind != null ? Long.parseLong(writeBehind) : 0;
+        final String maxPending = getNonEmptyString(options, "writeBehindMaxPending", null);
+        writeBehindMaxPending = maxPending != null ? Integer.parseInt(maxPending) : DEFAULT_WRITE_BEHIND_MAX_PENDING;
+        final String shards = getNonEmptyString(options, "shardCount", null);
+        shardCount = shards != null ? Math.max(1, Integer.parseInt(shards)) : 1;
+        final String poolSize = getNonEmptyString(options, "workerPoolSize", null);
+        workerPoolSize = poolSize != null ? Math.max(0, Integer.parseInt(poolSize)) : 0;
+
+        profileKey = sharedPreferencesName + '\0'
+                + keyPrefix + '\0'
+                + keyCipherAlgorithm + '\0'
+                + storageCipherAlgorithm + '\0'
+                + useEncryptedSharedPreferences + '\0'
+                + storageBackend + '\0'
+                + shardCount;
+    }
+
+    private static String getString(Map<String, Object> options, String key) {
+        final Object value = options.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    private static String getNonEmptyString(Map<String, Object> options, String key, String defaultValue) {
+        final String value = getString(options, key);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
@@ -0,0 +1,50 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.content.SharedPreferences;
+
+import com.it_nomads.fluttersecurestorage.ciphers.StorageCipher;
+import com.it_nomads.fluttersecurestorage.ciphers.StorageCipherFactory;
+
+/**
+ * Fully initialized storage state for one combination of options.
+ * Built once by {@link FlutterSecureStorage} and reused for every following call with the same options.
+ */
+class StorageProfile {
+    /**
+     * The {@link StorageOptions#profileKey} of the options the profile was built for.
+     */
+    final String profileKey;
+    final String sharedPreferencesName;
+    final String keyPrefix;
+    final SharedPreferences preferences;
+    final StorageCipher storageCipher;
+    final StorageCipherFactory storageCipherFactory;
+    final boolean useEncryptedSharedPreferences;
+    /**
+     * Shared by all profiles of the same file, null until a profile of the file writes with a
+     * write-behind delay and always null with encryptedSharedPreferences.
+     */
+    volatile WriteBehindBuffer writeBuffer;
+    /**
+     * Set when unencrypted values were written to the same file after this profile migrated it.
+     */
+    volatile boolean migrationPending;
+
+    StorageProfile(String profileKey,
+                   String sharedPreferencesName,
+                   String keyPrefix,
+                   SharedPreferences preferences,
+                   StorageCipher storageCipher,
+                   StorageCipherFactory storageCipherFactory,
+                   boolean useEncryptedSharedPreferences,
+                   WriteBehindBuffer writeBuffer) {
+        this.profileKey = profileKey;
+        this.sharedPreferencesName = sharedPreferencesName;
+        this.keyPrefix = keyPrefix;
+        this.preferences = preferences;
+        this.storageCipher = storageCipher;
+        this.storageCipherFactory = storageCipherFactory;
+        this.useEncryptedSharedPreferences = useEncryptedSharedPreferences;
+        this.writeBuffer = writeBuffer;
+    }
+}
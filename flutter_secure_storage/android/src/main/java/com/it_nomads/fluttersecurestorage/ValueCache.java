@@ -0,0 +1,99 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of decrypted values.
+ * Every invalidation bumps a version, so a value decrypted before a concurrent write or delete
+ * is never put back into the cache.
+ */
+class ValueCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long version;
+    private long hits;
+    private long misses;
+
+    synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt != 0 && entry.expiresAt <= SystemClock.elapsedRealtime()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches a value unless the cache was invalidated after {@code version} was read.
+     *
+     * @param ttlMillis how long the value stays valid, 0 keeps it until it is evicted.
+     */
+    synchronized void put(String key, String value, int maxEntries, long ttlMillis, long version) {
+        if (version != this.version) {
+            return;
+        }
+        final long expiresAt = ttlMillis > 0 ? SystemClock.elapsedRealtime() + ttlMillis : 0;
+        entries.put(key, new Entry(value, expiresAt));
+
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    synchronized void invalidate(String key) {
+        version++;
+        entries.remove(key);
+    }
+
+    synchronized void invalidatePrefix(String prefix) {
+        version++;
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        version++;
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        final String value;
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
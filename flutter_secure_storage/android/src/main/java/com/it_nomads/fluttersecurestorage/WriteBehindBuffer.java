@@ -0,0 +1,174 @@
+package com.it_nomads.fluttersecurestorage;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the encrypted writes and deletes of one preferences file in memory and persists them
+ * with a single commit, either after a delay or once enough of them are pending.
+ * Single keys must be read through the buffer, calls that work on the whole file must
+ * {@link #flush()} it first.
+ */
+class WriteBehindBuffer {
+
+    private static final String TAG = "WriteBehindBuffer";
+    private static final String FLUSH_THREAD_NAME = "com.it_nomads.fluttersecurestorage.flush";
+    private static final ScheduledThreadPoolExecutor flushExecutor = new ScheduledThreadPoolExecutor(
+            1, runnable -> new Thread(runnable, FLUSH_THREAD_NAME));
+
+    static {
+        flushExecutor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        flushExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final SharedPreferences preferences;
+    // Held for a whole flush, so a flush that returns has persisted every change made before it.
+    private final Object flushLock = new Object();
+    // Guarded by "this". A null value is a pending delete.
+    private Map<String, String> pending = new HashMap<>();
+    // Guarded by "this". The changes a running flush commits, still read from here until they are.
+    private Map<String, String> flushing = Collections.emptyMap();
+    // Guarded by "this".
+    private ScheduledFuture<?> scheduledFlush;
+    // Guarded by "this". The delay of the latest change, also used to retry a failed flush.
+    private long delayMillis;
+
+    WriteBehindBuffer(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    /**
+     * Reads through the pending changes, so a flush running meanwhile can't hide a value.
+     */
+    synchronized String getString(String key) {
+        if (pending.containsKey(key)) {
+            return pending.get(key);
+        }
+        if (flushing.containsKey(key)) {
+            return flushing.get(key);
+        }
+        return preferences.getString(key, null);
+    }
+
+    synchronized boolean contains(String key) {
+        if (pending.containsKey(key)) {
+            return pending.get(key) != null;
+        }
+        if (flushing.containsKey(key)) {
+            return flushing.get(key) != null;
+        }
+        return preferences.contains(key);
+    }
+
+    /**
+     * @param value       the encrypted value, or null to delete the key.
+     * @param delayMillis how long the change may stay in memory.
+     * @param maxPending  the number of pending changes that are persisted right away.
+     */
+    void put(String key, String value, long delayMillis, int maxPending) throws Exception {
+        final boolean flushNow;
+        synchronized (this) {
+            pending.put(key, value);
+            this.delayMillis = delayMillis;
+            flushNow = pending.size() >= maxPending;
+            if (!flushNow) {
+                scheduleFlush();
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Persists all pending changes. The commit runs without holding the monitor reads go through.
+     * If it fails, the changes are kept and a retry is scheduled.
+     */
+    void flush() throws Exception {
+        synchronized (flushLock) {
+            final Map<String, String> changes;
+            synchronized (this) {
+                cancelScheduledFlush();
+                if (pending.isEmpty()) {
+                    return;
+                }
+                changes = pending;
+                pending = new HashMap<>();
+                flushing = changes;
+            }
+
+            boolean committed = false;
+            try {
+                SharedPreferences.Editor editor = preferences.edit();
+                for (Map.Entry<String, String> entry : changes.entrySet()) {
+                    if (entry.getValue() != null) {
+                        editor.putString(entry.getKey(), entry.getValue());
+                    } else {
+                        editor.remove(entry.getKey());
+                    }
+                }
+                committed = editor.commit();
+            } finally {
+                synchronized (this) {
+                    flushing = Collections.emptyMap();
+                    if (!committed) {
+                        // Changes made during the commit are newer than the ones that failed.
+                        for (Map.Entry<String, String> entry : changes.entrySet()) {
+                            if (!pending.containsKey(entry.getKey())) {
+                                pending.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                        scheduleFlush();
+                    }
+                }
+            }
+            if (!committed) {
+                throw new Exception("Failed to commit " + changes.size() + " pending changes");
+            }
+        }
+    }
+
+    /**
+     * Drops the pending changes, for calls that clear the whole file anyway. Waits for a running
+     * flush, so its changes can't end up in the file after it was cleared.
+     */
+    void discard() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                cancelScheduledFlush();
+                pending.clear();
+            }
+        }
+    }
+
+    // Must hold "this".
+    private void scheduleFlush() {
+        if (scheduledFlush == null) {
+            scheduledFlush = flushExecutor.schedule(this::flushQuietly, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Must hold "this".
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // flush already scheduled the retry.
+            Log.e(TAG, "Failed to persist pending changes", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import android.content.Context;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Wraps the AES storage key with an AES-GCM key kept in the Android Keystore.
+ * Generating the Keystore key takes a fraction of the time of an RSA key pair, and unwrapping is
+ * a single symmetric Keystore operation instead of an RSA private key operation.
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+public class AESCipherGCMImplementation implements KeyCipher {
+
+    private static final int IV_SIZE = 12;
+    private static final int AUTHENTICATION_TAG_SIZE = 128;
+    private final String keyAlias;
+
+    public AESCipherGCMImplementation(Context context) throws Exception {
+        keyAlias = context.getPackageName() + ".FlutterSecureStoragePluginKeyAES";
+        KeystoreKeys.getOrCreateAESKey(keyAlias);
+    }
+
+    @Override
+    public byte[] wrap(Key key) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, getWrappingKey());
+        } catch (InvalidKeyException e) {
+            KeystoreKeys.invalidateAESKey(keyAlias);
+            throw e;
+        }
+        final byte[] iv = cipher.getIV();
+        final byte[] encoded = key.getEncoded();
+
+        byte[] wrapped = new byte[iv.length + cipher.getOutputSize(encoded.length)];
+        System.arraycopy(iv, 0, wrapped, 0, iv.length);
+        cipher.doFinal(encoded, 0, encoded.length, wrapped, iv.length);
+        return wrapped;
+    }
+
+    @Override
+    public Key unwrap(byte[] wrappedKey, String algorithm) throws Exception {
+        if (wrappedKey.length <= IV_SIZE) {
+            throw new Exception("Wrapped key is too short");
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, getWrappingKey(), new GCMParameterSpec(AUTHENTICATION_TAG_SIZE, wrappedKey, 0, IV_SIZE));
+        } catch (InvalidKeyException e) {
+            KeystoreKeys.invalidateAESKey(keyAlias);
+            throw e;
+        }
+        return new SecretKeySpec(cipher.doFinal(wrappedKey, IV_SIZE, wrappedKey.length - IV_SIZE), algorithm);
+    }
+
+    @Override
+    public String getWrappedKeySuffix() {
+        return "AES";
+    }
+
+    private SecretKey getWrappingKey() throws Exception {
+        return KeystoreKeys.getOrCreateAESKey(keyAlias);
+    }
+}
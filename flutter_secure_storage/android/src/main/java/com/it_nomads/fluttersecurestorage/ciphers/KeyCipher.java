@@ -6,4 +6,12 @@ public interface KeyCipher {
     byte[] wrap(Key key) throws Exception;
 
     Key unwrap(byte[] wrappedKey, String algorithm) throws Exception;
+
+    /**
+     * Appended to the preferences key of a wrapped AES key, so keys wrapped by different key ciphers
+     * don't overwrite each other and stores that still use another key cipher keep their key.
+     */
+    default String getWrappedKeySuffix() {
+        return "";
+    }
 }
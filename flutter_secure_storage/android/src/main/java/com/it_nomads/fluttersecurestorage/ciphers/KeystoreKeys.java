@@ -0,0 +1,76 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import androidx.annotation.RequiresApi;
+
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Access to the Android Keystore shared by all ciphers. Loading the Keystore and looking up a key
+ * are IPCs to the keystore daemon, so both are done once per process.
+ */
+final class KeystoreKeys {
+
+    private static final String KEYSTORE_PROVIDER_ANDROID = "AndroidKeyStore";
+    private static final int AES_KEY_SIZE = 256;
+    private static final Map<String, SecretKey> secretKeys = new ConcurrentHashMap<>();
+    private static KeyStore keyStore;
+
+    private KeystoreKeys() {
+    }
+
+    static synchronized KeyStore getKeyStore() throws Exception {
+        if (keyStore == null) {
+            KeyStore ks = KeyStore.getInstance(KEYSTORE_PROVIDER_ANDROID);
+            ks.load(null);
+            keyStore = ks;
+        }
+        return keyStore;
+    }
+
+    /**
+     * Returns the AES-GCM key under the given alias, generating it inside the Keystore the first time.
+     * The key material never leaves the Keystore, the returned key is only a handle to it.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    static SecretKey getOrCreateAESKey(String alias) throws Exception {
+        SecretKey cached = secretKeys.get(alias);
+        if (cached != null) {
+            return cached;
+        }
+
+        KeyStore ks = getKeyStore();
+        synchronized (ks) {
+            Key key = ks.getKey(alias, null);
+            if (key == null) {
+                KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE_PROVIDER_ANDROID);
+                generator.init(new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                        .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                        .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                        .setKeySize(AES_KEY_SIZE)
+                        .build());
+                key = generator.generateKey();
+            } else if (!(key instanceof SecretKey)) {
+                throw new Exception("Not an instance of a SecretKey");
+            }
+            secretKeys.put(alias, (SecretKey) key);
+            return (SecretKey) key;
+        }
+    }
+
+    /**
+     * Drops the cached handle, e.g. after the key was permanently invalidated.
+     */
+    static void invalidateAESKey(String alias) {
+        secretKeys.remove(alias);
+    }
+}
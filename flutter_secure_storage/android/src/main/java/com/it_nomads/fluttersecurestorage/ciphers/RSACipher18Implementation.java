@@ -1,7 +1,6 @@
 package com.it_nomads.fluttersecurestorage.ciphers;
 
 import android.content.Context;
-import android.content.res.Configuration;
 import android.os.Build;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
@@ -9,6 +8,7 @@ import android.security.keystore.KeyProperties;
 import androidx.annotation.RequiresApi;
 
 import java.math.BigInteger;
+import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
@@ -16,8 +16,20 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.Certificate;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Cipher;
 import javax.security.auth.x500.X500Principal;
@@ -26,6 +38,15 @@ class RSACipher18Implementation implements KeyCipher {
 
     private static final String KEYSTORE_PROVIDER_ANDROID = "AndroidKeyStore";
     private static final String TYPE_RSA = "RSA";
+    // The keys below are shared by all instances, each lookup is an IPC to the keystore daemon.
+    private static final Map<String, PrivateKey> privateKeys = new ConcurrentHashMap<>();
+    private static final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+    private static final Map<String, UnwrappedKey> unwrappedKeys = new ConcurrentHashMap<>();
+    // Running or finished key generations by alias, so every key pair is only generated once.
+    private static final Map<String, Future<Void>> keyGenerations = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor keyGenerationExecutor = new ThreadPoolExecutor(
+            0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            runnable -> new Thread(runnable, "com.it_nomads.fluttersecurestorage.keygen"));
     protected final String keyAlias;
     protected final Context context;
 
@@ -33,7 +54,7 @@ class RSACipher18Implementation implements KeyCipher {
     public RSACipher18Implementation(Context context) throws Exception {
         this.context = context;
         keyAlias = createKeyAlias();
-        createRSAKeysIfNeeded(context);
+        startKeyGeneration(context);
     }
 
     protected String createKeyAlias() {
@@ -42,27 +63,69 @@ class RSACipher18Implementation implements KeyCipher {
 
     @Override
     public byte[] wrap(Key key) throws Exception {
+        awaitKeyGeneration();
         PublicKey publicKey = getPublicKey();
         Cipher cipher = getRSACipher();
-        cipher.init(Cipher.WRAP_MODE, publicKey, getAlgorithmParameterSpec());
+        try {
+            cipher.init(Cipher.WRAP_MODE, publicKey, getAlgorithmParameterSpec());
+        } catch (InvalidKeyException e) {
+            invalidateKeys(keyAlias);
+            throw e;
+        }
 
         return cipher.wrap(key);
     }
 
     @Override
     public Key unwrap(byte[] wrappedKey, String algorithm) throws Exception {
+        final String cacheKey = keyAlias + '\0' + algorithm + '\0' + Arrays.hashCode(wrappedKey);
+        UnwrappedKey cached = unwrappedKeys.get(cacheKey);
+        if (cached != null && Arrays.equals(cached.wrappedKey, wrappedKey)) {
+            return cached.key;
+        }
+
+        awaitKeyGeneration();
         PrivateKey privateKey = getPrivateKey();
         Cipher cipher = getRSACipher();
-        cipher.init(Cipher.UNWRAP_MODE, privateKey, getAlgorithmParameterSpec());
+        Key key;
+        try {
+            cipher.init(Cipher.UNWRAP_MODE, privateKey, getAlgorithmParameterSpec());
+            key = cipher.unwrap(wrappedKey, algorithm, Cipher.SECRET_KEY);
+        } catch (InvalidKeyException e) {
+            invalidateKeys(keyAlias);
+            throw e;
+        }
 
-        return cipher.unwrap(wrappedKey, algorithm, Cipher.SECRET_KEY);
+        unwrappedKeys.put(cacheKey, new UnwrappedKey(wrappedKey.clone(), key));
+        return key;
+    }
+
+    /**
+     * Drops every cached reference to the keys under the given alias, e.g. after the key was
+     * permanently invalidated, so the next call loads them from the Keystore again.
+     */
+    private static void invalidateKeys(String keyAlias) {
+        privateKeys.remove(keyAlias);
+        publicKeys.remove(keyAlias);
+        Iterator<String> iterator = unwrappedKeys.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(keyAlias + '\0')) {
+                iterator.remove();
+            }
+        }
     }
 
     private PrivateKey getPrivateKey() throws Exception {
-        KeyStore ks = KeyStore.getInstance(KEYSTORE_PROVIDER_ANDROID);
-        ks.load(null);
+        PrivateKey cached = privateKeys.get(keyAlias);
+        if (cached != null) {
+            return cached;
+        }
 
-        Key key = ks.getKey(keyAlias, null);
+        KeyStore ks = KeystoreKeys.getKeyStore();
+        Key key;
+        synchronized (ks) {
+            key = ks.getKey(keyAlias, null);
+        }
         if (key == null) {
             throw new Exception("No key found under alias: " + keyAlias);
         }
@@ -71,14 +134,21 @@ class RSACipher18Implementation implements KeyCipher {
             throw new Exception("Not an instance of a PrivateKey");
         }
 
+        privateKeys.put(keyAlias, (PrivateKey) key);
         return (PrivateKey) key;
     }
 
     private PublicKey getPublicKey() throws Exception {
-        KeyStore ks = KeyStore.getInstance(KEYSTORE_PROVIDER_ANDROID);
-        ks.load(null);
+        PublicKey cached = publicKeys.get(keyAlias);
+        if (cached != null) {
+            return cached;
+        }
 
-        Certificate cert = ks.getCertificate(keyAlias);
+        KeyStore ks = KeystoreKeys.getKeyStore();
+        Certificate cert;
+        synchronized (ks) {
+            cert = ks.getCertificate(keyAlias);
+        }
         if (cert == null) {
             throw new Exception("No certificate found under alias: " + keyAlias);
         }
@@ -88,6 +158,7 @@ class RSACipher18Implementation implements KeyCipher {
             throw new Exception("No key found under alias: " + keyAlias);
         }
 
+        publicKeys.put(keyAlias, key);
         return key;
     }
 
@@ -103,49 +174,82 @@ class RSACipher18Implementation implements KeyCipher {
         return null;
     }
 
+    /**
+     * Looks up or generates the key pair on a background thread, so creating a cipher doesn't block
+     * until the key is actually used. Concurrent instances for the same alias share one generation.
+     */
+    private void startKeyGeneration(final Context context) {
+        if (privateKeys.containsKey(keyAlias)) {
+            return;
+        }
+        synchronized (keyGenerations) {
+            if (keyGenerations.containsKey(keyAlias)) {
+                return;
+            }
+            FutureTask<Void> generation = new FutureTask<>(() -> {
+                createRSAKeysIfNeeded(context);
+                return null;
+            });
+            keyGenerations.put(keyAlias, generation);
+            keyGenerationExecutor.execute(generation);
+        }
+    }
+
+    private void awaitKeyGeneration() throws Exception {
+        final Future<Void> generation = keyGenerations.get(keyAlias);
+        if (generation == null) {
+            return;
+        }
+        try {
+            generation.get();
+        } catch (ExecutionException e) {
+            // Let the next instance try again.
+            keyGenerations.remove(keyAlias, generation);
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     private void createRSAKeysIfNeeded(Context context) throws Exception {
-        KeyStore ks = KeyStore.getInstance(KEYSTORE_PROVIDER_ANDROID);
-        ks.load(null);
+        if (privateKeys.containsKey(keyAlias)) {
+            return;
+        }
 
-        Key privateKey = ks.getKey(keyAlias, null);
+        KeyStore ks = KeystoreKeys.getKeyStore();
+        Key privateKey;
+        synchronized (ks) {
+            privateKey = ks.getKey(keyAlias, null);
+        }
         if (privateKey == null) {
             createKeys(context);
+        } else if (privateKey instanceof PrivateKey) {
+            privateKeys.put(keyAlias, (PrivateKey) privateKey);
         }
     }
 
     /**
-     * Sets default locale.
+     * The certificate dates are computed with a fixed Gregorian calendar, so a locale with another
+     * calendar can't move them. The default locale is never changed, it is shared by the whole process.
      */
-    private void setLocale(Locale locale) {
-        Locale.setDefault(locale);
-        Configuration config = context.getResources().getConfiguration();
-        config.setLocale(locale);
-        context.createConfigurationContext(config);
-    }
-
     private void createKeys(Context context) throws Exception {
-        final Locale localeBeforeFakingEnglishLocale = Locale.getDefault();
-        try {
-            setLocale(Locale.ENGLISH);
-            Calendar start = Calendar.getInstance();
-            Calendar end = Calendar.getInstance();
-            end.add(Calendar.YEAR, 25);
-
-            KeyPairGenerator kpGenerator = KeyPairGenerator.getInstance(TYPE_RSA, KEYSTORE_PROVIDER_ANDROID);
+        Calendar start = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.YEAR, 25);
 
-            AlgorithmParameterSpec spec;
+        KeyPairGenerator kpGenerator = KeyPairGenerator.getInstance(TYPE_RSA, KEYSTORE_PROVIDER_ANDROID);
 
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-                spec = makeAlgorithmParameterSpecLegacy(context, start, end);
-            } else {
-                spec = makeAlgorithmParameterSpec(context, start, end);
-            }
+        AlgorithmParameterSpec spec;
 
-            kpGenerator.initialize(spec);
-            kpGenerator.generateKeyPair();
-        } finally {
-            setLocale(localeBeforeFakingEnglishLocale);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            spec = makeAlgorithmParameterSpecLegacy(context, start, end);
+        } else {
+            spec = makeAlgorithmParameterSpec(context, start, end);
         }
+
+        kpGenerator.initialize(spec);
+        kpGenerator.generateKeyPair();
     }
 
     // Flutter gives deprecation warning without suppress
@@ -172,4 +276,14 @@ class RSACipher18Implementation implements KeyCipher {
                 .setCertificateNotAfter(end.getTime());
         return builder.build();
     }
+
+    private static class UnwrappedKey {
+        final byte[] wrappedKey;
+        final Key key;
+
+        UnwrappedKey(byte[] wrappedKey, Key key) {
+            this.wrappedKey = wrappedKey;
+            this.key = key;
+        }
+    }
 }
@@ -4,4 +4,33 @@ public interface StorageCipher {
     byte[] encrypt(byte[] input) throws Exception;
 
     byte[] decrypt(byte[] input) throws Exception;
+
+    /**
+     * Loads or creates the key ahead of the first encryption or decryption, which otherwise does it.
+     */
+    default void loadKey() throws Exception {
+    }
+
+    /**
+     * Whether the cipher authenticates associated data, so a value only decrypts with the same
+     * associated data it was encrypted with.
+     */
+    default boolean supportsAssociatedData() {
+        return false;
+    }
+
+    /**
+     * Encrypts a value for the given associated data, e.g. the key it is stored under.
+     * Ciphers that don't {@link #supportsAssociatedData() support} associated data ignore it.
+     */
+    default byte[] encrypt(byte[] input, byte[] associatedData) throws Exception {
+        return encrypt(input);
+    }
+
+    /**
+     * Decrypts a value that was encrypted for the given associated data.
+     */
+    default byte[] decrypt(byte[] input, byte[] associatedData) throws Exception {
+        return decrypt(input);
+    }
 }
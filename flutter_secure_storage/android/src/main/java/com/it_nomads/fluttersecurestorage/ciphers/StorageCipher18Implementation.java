@@ -2,12 +2,16 @@ package com.it_nomads.fluttersecurestorage.ciphers;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.util.Base64;
 import android.util.Log;
 
 import java.security.Key;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -17,27 +21,62 @@ public class StorageCipher18Implementation implements StorageCipher {
     private static final int keySize = 16;
     private static final String KEY_ALGORITHM = "AES";
     private static final String SHARED_PREFERENCES_NAME = "FlutterSecureKeyStorage";
-    private final Cipher cipher;
+    private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
     private final SecureRandom secureRandom;
-    private Key secretKey;
+    private final Context context;
+    private final KeyCipher rsaCipher;
+    // Loaded on first use, so creating the cipher doesn't wait for the key pair of the key cipher.
+    private volatile Key secretKey;
 
     public StorageCipher18Implementation(Context context, KeyCipher rsaCipher) throws Exception {
         secureRandom = new SecureRandom();
-        String aesPreferencesKey = getAESPreferencesKey();
+        this.context = context;
+        this.rsaCipher = rsaCipher;
+        ciphers.offer(getCipher());
+    }
+
+    @Override
+    public void loadKey() throws Exception {
+        getSecretKey();
+    }
+
+    private Key getSecretKey() throws Exception {
+        Key key = secretKey;
+        if (key == null) {
+            synchronized (this) {
+                key = secretKey;
+                if (key == null) {
+                    key = loadSecretKey(context, rsaCipher);
+                    secretKey = key;
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Drops the loaded key, so the next encryption or decryption loads it again.
+     */
+    protected void invalidateSecretKey() {
+        secretKey = null;
+    }
+
+    /**
+     * Unwraps the stored AES key, or creates and stores a new one if there is none that can be unwrapped.
+     */
+    protected Key loadSecretKey(Context context, KeyCipher rsaCipher) throws Exception {
+        String aesPreferencesKey = getAESPreferencesKey() + rsaCipher.getWrappedKeySuffix();
 
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = preferences.edit();
 
         String aesKey = preferences.getString(aesPreferencesKey, null);
 
-        cipher = getCipher();
-
         if (aesKey != null) {
             byte[] encrypted;
             try {
                 encrypted = Base64.decode(aesKey, Base64.DEFAULT);
-                secretKey = rsaCipher.unwrap(encrypted, KEY_ALGORITHM);
-                return;
+                return rsaCipher.unwrap(encrypted, KEY_ALGORITHM);
             } catch (Exception e) {
                 Log.e("StorageCipher18Impl", "unwrap key failed", e);
             }
@@ -45,11 +84,12 @@ public class StorageCipher18Implementation implements StorageCipher {
 
         byte[] key = new byte[keySize];
         secureRandom.nextBytes(key);
-        secretKey = new SecretKeySpec(key, KEY_ALGORITHM);
+        Key secretKey = new SecretKeySpec(key, KEY_ALGORITHM);
 
         byte[] encryptedKey = rsaCipher.wrap(secretKey);
-        editor.putString(aesPreferencesKey, Base64.encodeToString(encryptedKey, Base64.DEFAULT));
+        editor.putString(aesPreferencesKey, Base64.encodeToString(encryptedKey, Base64.NO_WRAP));
         editor.apply();
+        return secretKey;
     }
 
     protected String getAESPreferencesKey() {
@@ -60,45 +100,98 @@ public class StorageCipher18Implementation implements StorageCipher {
         return Cipher.getInstance("AES/CBC/PKCS7Padding");
     }
 
+    /**
+     * Takes a Cipher that no other thread is using, creating a new one when all are in use.
+     */
+    private Cipher obtainCipher() throws Exception {
+        Cipher cipher = ciphers.poll();
+        return cipher != null ? cipher : getCipher();
+    }
+
+    private void releaseCipher(Cipher cipher) {
+        ciphers.offer(cipher);
+    }
+
     @Override
     public byte[] encrypt(byte[] input) throws Exception {
-        byte[] iv = new byte[getIvSize()];
-        secureRandom.nextBytes(iv);
+        return encryptWithAssociatedData(input, null);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] input) throws Exception {
+        return decryptWithAssociatedData(input, null);
+    }
 
-        AlgorithmParameterSpec ivParameterSpec = getParameterSpec(iv);
+    @Override
+    public byte[] encrypt(byte[] input, byte[] associatedData) throws Exception {
+        return encryptWithAssociatedData(input, supportsAssociatedData() ? associatedData : null);
+    }
 
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivParameterSpec);
+    @Override
+    public byte[] decrypt(byte[] input, byte[] associatedData) throws Exception {
+        return decryptWithAssociatedData(input, supportsAssociatedData() ? associatedData : null);
+    }
 
-        byte[] payload = cipher.doFinal(input);
-        byte[] combined = new byte[iv.length + payload.length];
+    private byte[] encryptWithAssociatedData(byte[] input, byte[] associatedData) throws Exception {
+        Cipher cipher = obtainCipher();
+        try {
+            final byte[] iv = initEncryption(cipher, getSecretKey());
+            final int ivSize = iv.length;
+            if (associatedData != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                cipher.updateAAD(associatedData);
+            }
 
-        System.arraycopy(iv, 0, combined, 0, iv.length);
-        System.arraycopy(payload, 0, combined, iv.length, payload.length);
+            // Write the payload right behind the IV instead of concatenating two arrays afterwards.
+            byte[] combined = new byte[ivSize + cipher.getOutputSize(input.length)];
+            System.arraycopy(iv, 0, combined, 0, ivSize);
+            int payloadSize = cipher.doFinal(input, 0, input.length, combined, ivSize);
 
-        return combined;
+            if (ivSize + payloadSize != combined.length) {
+                return Arrays.copyOf(combined, ivSize + payloadSize);
+            }
+            return combined;
+        } finally {
+            releaseCipher(cipher);
+        }
     }
 
-    @Override
-    public byte[] decrypt(byte[] input) throws Exception {
-        byte[] iv = new byte[getIvSize()];
-        System.arraycopy(input, 0, iv, 0, iv.length);
-        AlgorithmParameterSpec ivParameterSpec = getParameterSpec(iv);
+    private byte[] decryptWithAssociatedData(byte[] input, byte[] associatedData) throws Exception {
+        final int ivSize = getIvSize();
+        AlgorithmParameterSpec ivParameterSpec = getParameterSpec(input, 0, ivSize);
+
+        Cipher cipher = obtainCipher();
+        try {
+            initDecryption(cipher, getSecretKey(), ivParameterSpec);
+            if (associatedData != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                cipher.updateAAD(associatedData);
+            }
 
-        int payloadSize = input.length - getIvSize();
-        byte[] payload = new byte[payloadSize];
-        System.arraycopy(input, iv.length, payload, 0, payloadSize);
+            return cipher.doFinal(input, ivSize, input.length - ivSize);
+        } finally {
+            releaseCipher(cipher);
+        }
+    }
 
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
+    /**
+     * Initializes the cipher for encrypting one value with a new random IV and returns the IV.
+     */
+    protected byte[] initEncryption(Cipher cipher, Key key) throws Exception {
+        byte[] iv = new byte[getIvSize()];
+        secureRandom.nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, key, getParameterSpec(iv, 0, iv.length));
+        return iv;
+    }
 
-        return cipher.doFinal(payload);
+    protected void initDecryption(Cipher cipher, Key key, AlgorithmParameterSpec parameterSpec) throws Exception {
+        cipher.init(Cipher.DECRYPT_MODE, key, parameterSpec);
     }
 
     protected int getIvSize() {
         return 16;
     }
 
-    protected AlgorithmParameterSpec getParameterSpec(byte[] iv) {
-        return new IvParameterSpec(iv);
+    protected AlgorithmParameterSpec getParameterSpec(byte[] iv, int offset, int length) {
+        return new IvParameterSpec(iv, offset, length);
     }
 
 }
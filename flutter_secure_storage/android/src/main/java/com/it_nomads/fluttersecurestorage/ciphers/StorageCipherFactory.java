@@ -4,12 +4,17 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Build;
 
+import androidx.annotation.VisibleForTesting;
+
+import java.util.EnumMap;
 import java.util.Map;
 
 enum KeyCipherAlgorithm {
     RSA_ECB_PKCS1Padding(RSACipher18Implementation::new, 1),
     @SuppressWarnings({"UnusedDeclaration"})
-    RSA_ECB_OAEPwithSHA_256andMGF1Padding(RSACipherOAEPImplementation::new, Build.VERSION_CODES.M);
+    RSA_ECB_OAEPwithSHA_256andMGF1Padding(RSACipherOAEPImplementation::new, Build.VERSION_CODES.M),
+    @SuppressWarnings({"UnusedDeclaration"})
+    AES_GCM_NoPadding(AESCipherGCMImplementation::new, Build.VERSION_CODES.M);
     final KeyCipherFunction keyCipher;
     final int minVersionCode;
 
@@ -20,15 +25,22 @@ enum KeyCipherAlgorithm {
 }
 
 enum StorageCipherAlgorithm {
-    AES_CBC_PKCS7Padding(StorageCipher18Implementation::new, 1),
+    AES_CBC_PKCS7Padding(StorageCipher18Implementation::new, 1, true),
+    @SuppressWarnings({"UnusedDeclaration"})
+    AES_GCM_NoPadding(StorageCipherGCMImplementation::new, Build.VERSION_CODES.M, true),
+    @SuppressWarnings({"UnusedDeclaration"})
+    AES_GCM_NoPadding_KeyBound(StorageCipherGCMKeyBoundImplementation::new, Build.VERSION_CODES.M, true),
     @SuppressWarnings({"UnusedDeclaration"})
-    AES_GCM_NoPadding(StorageCipherGCMImplementation::new, Build.VERSION_CODES.M);
+    AES_GCM_NoPadding_Keystore(StorageCipherGCMKeystoreImplementation::new, Build.VERSION_CODES.M, false);
     final StorageCipherFunction storageCipher;
     final int minVersionCode;
+    // Whether the AES key is wrapped by the key cipher, a key kept in the Keystore doesn't need one.
+    final boolean usesKeyCipher;
 
-    StorageCipherAlgorithm(StorageCipherFunction storageCipher, int minVersionCode) {
+    StorageCipherAlgorithm(StorageCipherFunction storageCipher, int minVersionCode, boolean usesKeyCipher) {
         this.storageCipher = storageCipher;
         this.minVersionCode = minVersionCode;
+        this.usesKeyCipher = usesKeyCipher;
     }
 }
 
@@ -46,43 +58,152 @@ public class StorageCipherFactory {
     private static final String ELEMENT_PREFERENCES_ALGORITHM_PREFIX = "FlutterSecureSAlgorithm";
     private static final String ELEMENT_PREFERENCES_ALGORITHM_KEY = ELEMENT_PREFERENCES_ALGORITHM_PREFIX + "Key";
     private static final String ELEMENT_PREFERENCES_ALGORITHM_STORAGE = ELEMENT_PREFERENCES_ALGORITHM_PREFIX + "Storage";
+    private static final String ELEMENT_PREFERENCES_MIGRATION_KEY = ELEMENT_PREFERENCES_ALGORITHM_PREFIX + "MigrationKey";
+    private static final String ELEMENT_PREFERENCES_MIGRATION_STORAGE = ELEMENT_PREFERENCES_ALGORITHM_PREFIX + "MigrationStorage";
+    private static final String ELEMENT_PREFERENCES_MIGRATION_PROGRESS = ELEMENT_PREFERENCES_ALGORITHM_PREFIX + "MigrationProgress";
     private static final KeyCipherAlgorithm DEFAULT_KEY_ALGORITHM = KeyCipherAlgorithm.RSA_ECB_PKCS1Padding;
     private static final StorageCipherAlgorithm DEFAULT_STORAGE_ALGORITHM = StorageCipherAlgorithm.AES_CBC_PKCS7Padding;
+    // Key ciphers only depend on the algorithm, so one instance per algorithm is shared by all factories.
+    private static final Map<KeyCipherAlgorithm, KeyCipher> keyCiphers = new EnumMap<>(KeyCipherAlgorithm.class);
 
     private final KeyCipherAlgorithm savedKeyAlgorithm;
     private final StorageCipherAlgorithm savedStorageAlgorithm;
     private final KeyCipherAlgorithm currentKeyAlgorithm;
     private final StorageCipherAlgorithm currentStorageAlgorithm;
-
-    public StorageCipherFactory(SharedPreferences source, Map<String, Object> options) {
+    // Algorithms of an interrupted re-encryption, or the current ones if there is none.
+    private final KeyCipherAlgorithm targetKeyAlgorithm;
+    private final StorageCipherAlgorithm targetStorageAlgorithm;
+    private final boolean migrationPending;
+    private final String migrationProgress;
+
+    /**
+     * @param keyCipherAlgorithm     name of the requested key cipher algorithm, null for the default.
+     * @param storageCipherAlgorithm name of the requested storage cipher algorithm, null for the default.
+     */
+    public StorageCipherFactory(SharedPreferences source, String keyCipherAlgorithm, String storageCipherAlgorithm) {
         savedKeyAlgorithm = KeyCipherAlgorithm.valueOf(source.getString(ELEMENT_PREFERENCES_ALGORITHM_KEY, DEFAULT_KEY_ALGORITHM.name()));
         savedStorageAlgorithm = StorageCipherAlgorithm.valueOf(source.getString(ELEMENT_PREFERENCES_ALGORITHM_STORAGE, DEFAULT_STORAGE_ALGORITHM.name()));
 
-        final KeyCipherAlgorithm currentKeyAlgorithmTmp = KeyCipherAlgorithm.valueOf(getFromOptionsWithDefault(options, "keyCipherAlgorithm", DEFAULT_KEY_ALGORITHM.name()));
+        final KeyCipherAlgorithm currentKeyAlgorithmTmp = keyCipherAlgorithm != null ? KeyCipherAlgorithm.valueOf(keyCipherAlgorithm) : DEFAULT_KEY_ALGORITHM;
         currentKeyAlgorithm = (currentKeyAlgorithmTmp.minVersionCode <= Build.VERSION.SDK_INT) ? currentKeyAlgorithmTmp : DEFAULT_KEY_ALGORITHM;
-        final StorageCipherAlgorithm currentStorageAlgorithmTmp = StorageCipherAlgorithm.valueOf(getFromOptionsWithDefault(options, "storageCipherAlgorithm", DEFAULT_STORAGE_ALGORITHM.name()));
+        final StorageCipherAlgorithm currentStorageAlgorithmTmp = storageCipherAlgorithm != null ? StorageCipherAlgorithm.valueOf(storageCipherAlgorithm) : DEFAULT_STORAGE_ALGORITHM;
         currentStorageAlgorithm = (currentStorageAlgorithmTmp.minVersionCode <= Build.VERSION.SDK_INT) ? currentStorageAlgorithmTmp : DEFAULT_STORAGE_ALGORITHM;
-    }
 
-    private String getFromOptionsWithDefault(Map<String, Object> options, String key, String defaultValue) {
-        final Object value = options.get(key);
-        return value != null ? value.toString() : defaultValue;
+        final String migrationKeyAlgorithm = source.getString(ELEMENT_PREFERENCES_MIGRATION_KEY, null);
+        final String migrationStorageAlgorithm = source.getString(ELEMENT_PREFERENCES_MIGRATION_STORAGE, null);
+        migrationPending = migrationKeyAlgorithm != null && migrationStorageAlgorithm != null;
+        targetKeyAlgorithm = migrationPending ? KeyCipherAlgorithm.valueOf(migrationKeyAlgorithm) : currentKeyAlgorithm;
+        targetStorageAlgorithm = migrationPending ? StorageCipherAlgorithm.valueOf(migrationStorageAlgorithm) : currentStorageAlgorithm;
+        migrationProgress = source.getString(ELEMENT_PREFERENCES_MIGRATION_PROGRESS, null);
     }
 
     public boolean requiresReEncryption() {
-        return savedKeyAlgorithm != currentKeyAlgorithm || savedStorageAlgorithm != currentStorageAlgorithm;
+        return migrationPending || savedKeyAlgorithm != currentKeyAlgorithm || savedStorageAlgorithm != currentStorageAlgorithm;
+    }
+
+    /**
+     * Whether a re-encryption was interrupted and has to be resumed before anything else.
+     */
+    public boolean isMigrationPending() {
+        return migrationPending;
+    }
+
+    /**
+     * The last key an interrupted re-encryption has committed, keys are re-encrypted in ascending order.
+     */
+    public String getMigrationProgress() {
+        return migrationProgress;
+    }
+
+    /**
+     * Returns null if the storage algorithm doesn't use a key cipher, so no Keystore key is created for it.
+     */
+    private static KeyCipher getKeyCipher(KeyCipherAlgorithm algorithm, StorageCipherAlgorithm storageAlgorithm, Context context) throws Exception {
+        if (!storageAlgorithm.usesKeyCipher) {
+            return null;
+        }
+        synchronized (keyCiphers) {
+            KeyCipher keyCipher = keyCiphers.get(algorithm);
+            if (keyCipher == null) {
+                keyCipher = algorithm.keyCipher.apply(context.getApplicationContext());
+                keyCiphers.put(algorithm, keyCipher);
+            }
+            return keyCipher;
+        }
+    }
+
+    /**
+     * Uses the given key cipher for every algorithm, so tests can run without the Android Keystore.
+     */
+    @VisibleForTesting
+    static void setKeyCipher(KeyCipher keyCipher) {
+        synchronized (keyCiphers) {
+            for (KeyCipherAlgorithm algorithm : KeyCipherAlgorithm.values()) {
+                keyCiphers.put(algorithm, keyCipher);
+            }
+        }
+    }
+
+    /**
+     * Starts looking up or creating the Keystore key of the saved key algorithm without creating a
+     * storage cipher. RSA key pairs are generated in the background and awaited on first use.
+     */
+    public void loadSavedKeyCipher(Context context) throws Exception {
+        getKeyCipher(savedKeyAlgorithm, savedStorageAlgorithm, context);
+    }
+
+    /**
+     * Starts looking up or creating the Keystore key of the current key algorithm without creating a
+     * storage cipher. RSA key pairs are generated in the background and awaited on first use.
+     */
+    public void loadCurrentKeyCipher(Context context) throws Exception {
+        getKeyCipher(currentKeyAlgorithm, currentStorageAlgorithm, context);
     }
 
     public StorageCipher getSavedStorageCipher(Context context) throws Exception {
-        final KeyCipher keyCipher = savedKeyAlgorithm.keyCipher.apply(context);
+        final KeyCipher keyCipher = getKeyCipher(savedKeyAlgorithm, savedStorageAlgorithm, context);
         return savedStorageAlgorithm.storageCipher.apply(context, keyCipher);
     }
 
     public StorageCipher getCurrentStorageCipher(Context context) throws Exception {
-        final KeyCipher keyCipher = currentKeyAlgorithm.keyCipher.apply(context);
+        final KeyCipher keyCipher = getKeyCipher(currentKeyAlgorithm, currentStorageAlgorithm, context);
         return currentStorageAlgorithm.storageCipher.apply(context, keyCipher);
     }
 
+    /**
+     * The cipher a re-encryption writes with: the one of the interrupted re-encryption if there is
+     * one, the current one otherwise.
+     */
+    public StorageCipher getMigrationTargetStorageCipher(Context context) throws Exception {
+        final KeyCipher keyCipher = getKeyCipher(targetKeyAlgorithm, targetStorageAlgorithm, context);
+        return targetStorageAlgorithm.storageCipher.apply(context, keyCipher);
+    }
+
+    public void storeMigrationTarget(SharedPreferences.Editor editor) {
+        editor.putString(ELEMENT_PREFERENCES_MIGRATION_KEY, targetKeyAlgorithm.name());
+        editor.putString(ELEMENT_PREFERENCES_MIGRATION_STORAGE, targetStorageAlgorithm.name());
+        editor.remove(ELEMENT_PREFERENCES_MIGRATION_PROGRESS);
+    }
+
+    public void storeMigrationProgress(SharedPreferences.Editor editor, String lastMigratedKey) {
+        editor.putString(ELEMENT_PREFERENCES_MIGRATION_PROGRESS, lastMigratedKey);
+    }
+
+    /**
+     * Marks the target algorithms as saved and removes the migration state.
+     */
+    public void completeMigration(SharedPreferences.Editor editor) {
+        editor.putString(ELEMENT_PREFERENCES_ALGORITHM_KEY, targetKeyAlgorithm.name());
+        editor.putString(ELEMENT_PREFERENCES_ALGORITHM_STORAGE, targetStorageAlgorithm.name());
+        removeMigrationState(editor);
+    }
+
+    private void removeMigrationState(SharedPreferences.Editor editor) {
+        editor.remove(ELEMENT_PREFERENCES_MIGRATION_KEY);
+        editor.remove(ELEMENT_PREFERENCES_MIGRATION_STORAGE);
+        editor.remove(ELEMENT_PREFERENCES_MIGRATION_PROGRESS);
+    }
+
     public void storeCurrentAlgorithms(SharedPreferences.Editor editor) {
         editor.putString(ELEMENT_PREFERENCES_ALGORITHM_KEY, currentKeyAlgorithm.name());
         editor.putString(ELEMENT_PREFERENCES_ALGORITHM_STORAGE, currentStorageAlgorithm.name());
@@ -91,5 +212,6 @@ public class StorageCipherFactory {
     public void removeCurrentAlgorithms(SharedPreferences.Editor editor) {
         editor.remove(ELEMENT_PREFERENCES_ALGORITHM_KEY);
         editor.remove(ELEMENT_PREFERENCES_ALGORITHM_STORAGE);
+        removeMigrationState(editor);
     }
 }
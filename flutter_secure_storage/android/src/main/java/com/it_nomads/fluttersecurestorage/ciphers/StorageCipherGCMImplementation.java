@@ -34,8 +34,8 @@ public class StorageCipherGCMImplementation extends StorageCipher18Implementatio
 
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     @Override
-    protected AlgorithmParameterSpec getParameterSpec(byte[] iv) {
-        return new GCMParameterSpec(AUTHENTICATION_TAG_SIZE, iv);
+    protected AlgorithmParameterSpec getParameterSpec(byte[] iv, int offset, int length) {
+        return new GCMParameterSpec(AUTHENTICATION_TAG_SIZE, iv, offset, length);
     }
 
 }
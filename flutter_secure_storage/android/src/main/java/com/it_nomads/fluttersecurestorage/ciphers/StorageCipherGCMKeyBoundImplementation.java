@@ -0,0 +1,24 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import android.content.Context;
+
+/**
+ * AES-GCM that authenticates the preferences key as associated data, so a ciphertext copied to
+ * another key fails to decrypt instead of returning the value of the original key.
+ */
+public class StorageCipherGCMKeyBoundImplementation extends StorageCipherGCMImplementation {
+
+    public StorageCipherGCMKeyBoundImplementation(Context context, KeyCipher keyCipher) throws Exception {
+        super(context, keyCipher);
+    }
+
+    @Override
+    protected String getAESPreferencesKey() {
+        return "VGhpcyBpcyB0aGUga2V5IGZvciBhIGtleSBib3VuZCBzZWN1cmUgc3RvcmFnZSBBRVMgS2V5Cg";
+    }
+
+    @Override
+    public boolean supportsAssociatedData() {
+        return true;
+    }
+}
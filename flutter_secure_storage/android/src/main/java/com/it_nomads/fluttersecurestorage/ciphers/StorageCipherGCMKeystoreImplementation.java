@@ -0,0 +1,64 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import android.content.Context;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+
+/**
+ * Key bound AES-GCM with the AES key itself kept in the Android Keystore.
+ * There is no wrapped key to unwrap with RSA on startup, but every encryption and decryption is
+ * performed by the Keystore. The Keystore also chooses the IV of every encryption.
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+public class StorageCipherGCMKeystoreImplementation extends StorageCipherGCMKeyBoundImplementation {
+
+    private final String keyAlias;
+
+    public StorageCipherGCMKeystoreImplementation(Context context, KeyCipher keyCipher) throws Exception {
+        super(context, keyCipher);
+        keyAlias = context.getPackageName() + ".FlutterSecureStorageDataKey";
+    }
+
+    @Override
+    protected Key loadSecretKey(Context context, KeyCipher keyCipher) throws Exception {
+        return KeystoreKeys.getOrCreateAESKey(keyAlias);
+    }
+
+    /**
+     * A KeyPermanentlyInvalidatedException, e.g. after the lock screen was removed, is an
+     * InvalidKeyException, so the handle of the key is dropped for both. The next call looks the
+     * key up in the Keystore again instead of failing with the stale handle for good.
+     */
+    @Override
+    protected byte[] initEncryption(Cipher cipher, Key key) throws Exception {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+        } catch (InvalidKeyException e) {
+            invalidateKey();
+            throw e;
+        }
+        return cipher.getIV();
+    }
+
+    @Override
+    protected void initDecryption(Cipher cipher, Key key, AlgorithmParameterSpec parameterSpec) throws Exception {
+        try {
+            super.initDecryption(cipher, key, parameterSpec);
+        } catch (InvalidKeyException e) {
+            invalidateKey();
+            throw e;
+        }
+    }
+
+    private void invalidateKey() {
+        KeystoreKeys.invalidateAESKey(keyAlias);
+        invalidateSecretKey();
+    }
+}
@@ -0,0 +1,182 @@
+package com.it_nomads.fluttersecurestorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppendLogPreferencesTest {
+
+    private static final Set<String> STRINGS = new HashSet<>(Arrays.asList("a", "", "\u00fc"));
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void storesEveryType() throws Exception {
+        final File file = getLogFile("typed");
+        assertTrue(writeTypedValues(new AppendLogPreferences(file)));
+
+        // A new instance reads the values back from the file.
+        assertTypedValues(new AppendLogPreferences(file));
+    }
+
+    @Test
+    public void compactionKeepsTypes() throws Exception {
+        final File file = getLogFile("compacted");
+        final AppendLogPreferences preferences = new AppendLogPreferences(file);
+        assertTrue(writeTypedValues(preferences));
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            value.append('x');
+        }
+        // Overwrites one key until most of the log is stale.
+        for (int i = 0; i < 256; i++) {
+            assertTrue(preferences.edit().putString("overwritten", value.toString() + i).commit());
+        }
+
+        assertTrue(file.length() < 64 * 1024);
+        assertTypedValues(new AppendLogPreferences(file));
+    }
+
+    @Test
+    public void typedGettersRejectOtherTypes() throws Exception {
+        final AppendLogPreferences preferences = new AppendLogPreferences(getLogFile("mistyped"));
+        assertTrue(preferences.edit().putString("string", "1").putInt("int", 1).commit());
+
+        try {
+            preferences.getInt("string", 0);
+            fail("Read a string as an int");
+        } catch (ClassCastException e) {
+            // Expected, like SharedPreferences.
+        }
+        try {
+            preferences.getString("int", null);
+            fail("Read an int as a string");
+        } catch (ClassCastException e) {
+            // Expected, like SharedPreferences.
+        }
+        assertEquals(7, preferences.getLong("missing", 7));
+    }
+
+    @Test
+    public void putNullRemoves() throws Exception {
+        final AppendLogPreferences preferences = new AppendLogPreferences(getLogFile("removed"));
+        assertTrue(preferences.edit().putString("string", "value").putStringSet("set", STRINGS).commit());
+        assertTrue(preferences.edit().putString("string", null).putStringSet("set", null).commit());
+
+        assertFalse(preferences.contains("string"));
+        assertFalse(preferences.contains("set"));
+    }
+
+    @Test
+    public void skipsDamagedRecord() throws Exception {
+        final File file = getLogFile("damaged");
+        writeRecords(new AppendLogPreferences(file));
+        // Flips a byte of the value of the first record, the records behind it stay readable.
+        corrupt(file, 10);
+
+        final AppendLogPreferences preferences = new AppendLogPreferences(file);
+        assertFalse(preferences.contains("a"));
+        assertEquals("2", preferences.getString("b", null));
+        assertEquals("3", preferences.getString("c", null));
+        assertEquals(45, file.length());
+    }
+
+    @Test
+    public void dropsTornTail() throws Exception {
+        final File file = getLogFile("torn");
+        writeRecords(new AppendLogPreferences(file));
+        final RandomAccessFile log = new RandomAccessFile(file, "rw");
+        try {
+            log.setLength(43);
+        } finally {
+            log.close();
+        }
+
+        final AppendLogPreferences preferences = new AppendLogPreferences(file);
+        assertEquals("1", preferences.getString("a", null));
+        assertEquals("2", preferences.getString("b", null));
+        assertFalse(preferences.contains("c"));
+        assertEquals(30, file.length());
+    }
+
+    @Test
+    public void importsEveryType() throws Exception {
+        final SharedPreferences xml = context.getSharedPreferences("typed_import", Context.MODE_PRIVATE);
+        assertTrue(writeTypedValues(xml));
+
+        assertTypedValues(StorageBackend.APPEND_LOG.open(context, "typed_import"));
+        assertTrue(xml.getAll().isEmpty());
+    }
+
+    private File getLogFile(String name) {
+        return new File(context.getFilesDir(), name + ".log");
+    }
+
+    // Writes three records of 15 bytes each.
+    private static void writeRecords(SharedPreferences preferences) {
+        assertTrue(preferences.edit().putString("a", "1").commit());
+        assertTrue(preferences.edit().putString("b", "2").commit());
+        assertTrue(preferences.edit().putString("c", "3").commit());
+    }
+
+    private static void corrupt(File file, long position) throws Exception {
+        final RandomAccessFile log = new RandomAccessFile(file, "rw");
+        try {
+            log.seek(position);
+            final int value = log.read();
+            log.seek(position);
+            log.write(value ^ 0xff);
+        } finally {
+            log.close();
+        }
+    }
+
+    private static boolean writeTypedValues(SharedPreferences preferences) {
+        return preferences.edit()
+                .putString("string", "value")
+                .putString("base64", "AAECAw==")
+                .putInt("int", -42)
+                .putLong("long", Long.MAX_VALUE)
+                .putFloat("float", 1.5f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", STRINGS)
+                .commit();
+    }
+
+    private static void assertTypedValues(SharedPreferences preferences) {
+        assertEquals("value", preferences.getString("string", null));
+        assertEquals("AAECAw==", preferences.getString("base64", null));
+        assertEquals(-42, preferences.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, preferences.getLong("long", 0));
+        assertEquals(1.5f, preferences.getFloat("float", 0), 0);
+        assertTrue(preferences.getBoolean("boolean", false));
+        assertEquals(STRINGS, preferences.getStringSet("set", null));
+
+        final Map<String, ?> all = preferences.getAll();
+        assertEquals(-42, all.get("int"));
+        assertEquals(STRINGS, all.get("set"));
+    }
+}
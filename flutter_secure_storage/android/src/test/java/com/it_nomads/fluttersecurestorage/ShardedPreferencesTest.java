@@ -0,0 +1,127 @@
+package com.it_nomads.fluttersecurestorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.it_nomads.fluttersecurestorage.ciphers.TestKeyCiphers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class ShardedPreferencesTest {
+
+    private static final String KEY_KEYSET = "__androidx_security_crypto_encrypted_prefs_key_keyset__";
+    private static final String VALUE_KEYSET = "__androidx_security_crypto_encrypted_prefs_value_keyset__";
+    // Shaped like an entry of EncryptedSharedPreferences, whose encrypted keys can contain an underscore.
+    private static final String ENCRYPTED_KEY = "ASrL_encrypted_key";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        TestKeyCiphers.install();
+    }
+
+    @Test
+    public void encryptedSharedPreferencesStoreIsNotSharded() {
+        final String name = "encrypted_store";
+        final Map<String, ?> entries = writeEncryptedSharedPreferencesFile(name);
+
+        final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+        storage.warmUp(storage.getOptions(createOptions(name, true, 4)));
+
+        assertUnsharded(name, entries);
+    }
+
+    @Test
+    public void fileWithEncryptedSharedPreferencesKeysetsIsNotSharded() {
+        final String name = "mixed_store";
+        final Map<String, ?> entries = writeEncryptedSharedPreferencesFile(name);
+
+        final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+        final SharedPreferences preferences = storage.openPreferences(storage.getOptions(createOptions(name, false, 4)), name);
+
+        assertFalse(preferences instanceof ShardedPreferences);
+        assertUnsharded(name, entries);
+    }
+
+    @Test
+    public void shardsOtherFiles() throws Exception {
+        final String name = "sharded_store";
+        final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+        final StorageOptions options = storage.getOptions(createOptions(name, false, 4));
+        final Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 32; i++) {
+            values.put(options.keyPrefix + "_key" + i, "value" + i);
+        }
+        storage.writeBatch(options, values);
+
+        assertTrue(storage.openPreferences(options, name) instanceof ShardedPreferences);
+        assertEquals(32, storage.countKeys(options));
+        assertEquals("value7", storage.read(options, options.keyPrefix + "_key7"));
+        // Keys with an underscore are spread over the shards, so the original file keeps only some.
+        assertTrue(getPreferences(name).getAll().size() < 32);
+    }
+
+    @Test
+    public void rejectsAnotherShardCountOfAnOpenFile() {
+        final String name = "resharded_store";
+        final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+        final SharedPreferences preferences = storage.openPreferences(storage.getOptions(createOptions(name, false, 4)), name);
+
+        assertSame(preferences, storage.openPreferences(storage.getOptions(createOptions(name, false, 4)), name));
+        try {
+            storage.openPreferences(storage.getOptions(createOptions(name, false, 2)), name);
+            fail("Opened a sharded file with another shard count");
+        } catch (IllegalStateException e) {
+            // Expected, the open instance would no longer find the entries that move.
+        }
+    }
+
+    private Map<String, ?> writeEncryptedSharedPreferencesFile(String name) {
+        final SharedPreferences preferences = getPreferences(name);
+        assertTrue(preferences.edit()
+                .putString(KEY_KEYSET, "keyset")
+                .putString(VALUE_KEYSET, "keyset")
+                .putString(ENCRYPTED_KEY, "encrypted value")
+                .commit());
+        return preferences.getAll();
+    }
+
+    private void assertUnsharded(String name, Map<String, ?> entries) {
+        final Map<String, ?> all = getPreferences(name).getAll();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            assertEquals(entry.getValue(), all.get(entry.getKey()));
+        }
+        assertFalse(all.containsKey("FlutterSecureShardCount"));
+        for (int i = 1; i < 4; i++) {
+            assertTrue(getPreferences(name + ".shard" + i).getAll().isEmpty());
+        }
+    }
+
+    private SharedPreferences getPreferences(String name) {
+        return context.getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+
+    private static Map<String, Object> createOptions(String name, boolean encryptedSharedPreferences, int shardCount) {
+        final Map<String, Object> options = new HashMap<>();
+        options.put("sharedPreferencesName", name);
+        options.put("encryptedSharedPreferences", String.valueOf(encryptedSharedPreferences));
+        options.put("shardCount", String.valueOf(shardCount));
+        return options;
+    }
+}
@@ -0,0 +1,91 @@
+package com.it_nomads.fluttersecurestorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.it_nomads.fluttersecurestorage.ciphers.TestKeyCiphers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class StorageBackendTest {
+
+    private static final String KEY_KEYSET = "__androidx_security_crypto_encrypted_prefs_key_keyset__";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        TestKeyCiphers.install();
+    }
+
+    @Test
+    public void importsSharedPreferencesIntoLog() throws Exception {
+        final SharedPreferences xml = getPreferences("imported_store");
+        assertTrue(xml.edit().putString("prefix_key", "value").commit());
+
+        final SharedPreferences log = StorageBackend.APPEND_LOG.open(context, "imported_store");
+
+        assertEquals("value", log.getString("prefix_key", null));
+        assertTrue(xml.getAll().isEmpty());
+    }
+
+    @Test
+    public void encryptedSharedPreferencesStoreBypassesLog() {
+        final SharedPreferences xml = writeEncryptedSharedPreferencesFile("encrypted_log_store");
+        final Map<String, ?> entries = xml.getAll();
+
+        final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+        final StorageOptions options = storage.getOptions(createOptions("encrypted_log_store", true, "appendLog"));
+        final SharedPreferences preferences = storage.openPreferences(options, "encrypted_log_store");
+        storage.warmUp(options);
+
+        assertFalse(preferences instanceof AppendLogPreferences);
+        assertEquals(entries, xml.getAll());
+        assertFalse(StorageBackend.getLogFile(context, "encrypted_log_store").exists());
+    }
+
+    @Test
+    public void doesNotImportEncryptedSharedPreferencesFile() throws Exception {
+        final SharedPreferences xml = writeEncryptedSharedPreferencesFile("shared_log_store");
+        final Map<String, ?> entries = xml.getAll();
+
+        final SharedPreferences log = StorageBackend.APPEND_LOG.open(context, "shared_log_store");
+
+        assertFalse(log.contains(KEY_KEYSET));
+        assertEquals(entries, xml.getAll());
+    }
+
+    private SharedPreferences writeEncryptedSharedPreferencesFile(String name) {
+        final SharedPreferences preferences = getPreferences(name);
+        assertTrue(preferences.edit()
+                .putString(KEY_KEYSET, "keyset")
+                .putString("ASrLencryptedkey", "encrypted value")
+                .commit());
+        return preferences;
+    }
+
+    private SharedPreferences getPreferences(String name) {
+        return context.getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+
+    private static Map<String, Object> createOptions(String name, boolean encryptedSharedPreferences, String storageBackend) {
+        final Map<String, Object> options = new HashMap<>();
+        options.put("sharedPreferencesName", name);
+        options.put("encryptedSharedPreferences", String.valueOf(encryptedSharedPreferences));
+        options.put("storageBackend", storageBackend);
+        return options;
+    }
+}
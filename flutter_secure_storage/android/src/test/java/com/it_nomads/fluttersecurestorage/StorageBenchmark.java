@@ -0,0 +1,119 @@
+package com.it_nomads.fluttersecurestorage;
+
+import static com.it_nomads.fluttersecurestorage.benchmark.Benchmark.params;
+
+import android.content.Context;
+
+import com.it_nomads.fluttersecurestorage.benchmark.Benchmark;
+import com.it_nomads.fluttersecurestorage.ciphers.TestKeyCiphers;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cost of the storage operations depending on the number of entries in the file.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StorageBenchmark {
+
+    private static final int[] ENTRY_COUNTS = {10, 100, 1000, 10000};
+    private static final String[] BACKENDS = {"sharedPreferences", "appendLog", "mappedLog"};
+    private static final int VALUE_SIZE = 64;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Benchmark.isEnabled());
+        context = RuntimeEnvironment.getApplication();
+        TestKeyCiphers.install();
+    }
+
+    @Test
+    public void readWriteAndReadAll() throws Exception {
+        final Benchmark benchmark = new Benchmark("StorageBenchmark");
+        final String value = createValue();
+        for (String backend : BACKENDS) {
+            for (final int entries : ENTRY_COUNTS) {
+                final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+                final StorageOptions options = storage.getOptions(createOptions(
+                        "sharedPreferencesName", "benchmark_" + backend + "_" + entries,
+                        "storageBackend", backend));
+                final List<String> keys = fill(storage, options, entries);
+
+                benchmark.measure("write", params("backend", backend, "entries", entries),
+                        100, 1000, VALUE_SIZE, 1, iteration -> storage.write(options, keys.get(iteration % entries), value));
+                benchmark.measure("read", params("backend", backend, "entries", entries),
+                        100, 1000, VALUE_SIZE, 1, iteration -> storage.read(options, keys.get(iteration % entries)));
+
+                final int readAllIterations = Math.max(5, 20000 / entries);
+                benchmark.measure("readAll", params("backend", backend, "entries", entries),
+                        readAllIterations / 5, readAllIterations, 0, 1, iteration -> storage.readAll(options));
+            }
+        }
+        benchmark.write();
+    }
+
+    /**
+     * Switches the storage cipher of a file back and forth. Every iteration re-encrypts all entries,
+     * the times and allocations are reported per entry.
+     */
+    @Test
+    public void reEncryptPreferences() throws Exception {
+        final Benchmark benchmark = new Benchmark("ReEncryptionBenchmark");
+        for (final int entries : ENTRY_COUNTS) {
+            final String name = "benchmark_reencryption_" + entries;
+            final FlutterSecureStorage seed = new FlutterSecureStorage(context);
+            fill(seed, seed.getOptions(createOptions("sharedPreferencesName", name)), entries);
+
+            final Map<String, Object> cbc = createOptions("sharedPreferencesName", name, "storageCipherAlgorithm", "AES_CBC_PKCS7Padding");
+            final Map<String, Object> gcm = createOptions("sharedPreferencesName", name, "storageCipherAlgorithm", "AES_GCM_NoPadding");
+            benchmark.measure("reEncryptPreferences", params("entries", entries, "ciphers", "AES_CBC_PKCS7Padding<->AES_GCM_NoPadding"),
+                    1, 4, 0, entries, iteration -> {
+                        // A new instance doesn't know the profiles of the previous iteration.
+                        final FlutterSecureStorage storage = new FlutterSecureStorage(context);
+                        storage.warmUp(storage.getOptions(iteration % 2 == 0 ? gcm : cbc));
+                    });
+        }
+        benchmark.write();
+    }
+
+    private List<String> fill(FlutterSecureStorage storage, StorageOptions options, int entries) throws Exception {
+        final String value = createValue();
+        final Map<String, String> values = new HashMap<>();
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            final String key = options.keyPrefix + "_key" + i;
+            values.put(key, value);
+            keys.add(key);
+        }
+        storage.deleteAll(options);
+        storage.writeBatch(options, values);
+        return keys;
+    }
+
+    private static String createValue() {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < VALUE_SIZE; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        return value.toString();
+    }
+
+    private static Map<String, Object> createOptions(String... keysAndValues) {
+        final Map<String, Object> options = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            options.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return options;
+    }
+}
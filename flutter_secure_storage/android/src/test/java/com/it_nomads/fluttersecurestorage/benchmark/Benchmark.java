@@ -0,0 +1,166 @@
+package com.it_nomads.fluttersecurestorage.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal harness for the JVM benchmarks of the plugin. An operation is run for a number of
+ * warm-up iterations and then measured one iteration at a time, reporting the latency percentiles
+ * and the bytes the calling thread allocated per iteration.
+ * Benchmarks only run with {@code ./gradlew testDebugUnitTest -Pbenchmark}. Every suite writes
+ * its results as JSON lines to {@code build/benchmarks/<suite>.json}, one object per measurement.
+ */
+public final class Benchmark {
+
+    public interface Operation {
+        /**
+         * @param iteration counts up from 0 across warm-up and measured iterations.
+         */
+        void run(int iteration) throws Exception;
+    }
+
+    private final String suite;
+    private final List<String> results = new ArrayList<>();
+
+    public Benchmark(String suite) {
+        this.suite = suite;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("benchmark");
+    }
+
+    /**
+     * @param params        describe the measurement, e.g. the cipher and the value size.
+     * @param bytesPerOp    payload bytes processed per iteration for the throughput, 0 to leave it out.
+     * @param opsPerIteration number of operations one iteration performs, the times and
+     *                        allocations are reported per operation.
+     */
+    public void measure(String name, Map<String, Object> params, int warmUpIterations, int iterations,
+                        long bytesPerOp, int opsPerIteration, Operation operation) throws Exception {
+        for (int i = 0; i < warmUpIterations; i++) {
+            operation.run(i);
+        }
+
+        final long[] nanos = new long[iterations];
+        final long allocatedBefore = getAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            operation.run(warmUpIterations + i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        final long allocatedAfter = getAllocatedBytes();
+
+        long total = 0;
+        for (long value : nanos) {
+            total += value;
+        }
+        Arrays.sort(nanos);
+        final long ops = (long) iterations * opsPerIteration;
+        final double nanosPerOp = (double) total / ops;
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("suite", suite);
+        result.put("benchmark", name);
+        result.put("params", params);
+        result.put("iterations", iterations);
+        result.put("opsPerIteration", opsPerIteration);
+        result.put("nanosPerOp", nanosPerOp);
+        result.put("opsPerSecond", 1e9 / nanosPerOp);
+        result.put("p50Nanos", nanos[iterations / 2] / opsPerIteration);
+        result.put("p99Nanos", nanos[Math.min(iterations - 1, iterations * 99 / 100)] / opsPerIteration);
+        if (bytesPerOp > 0) {
+            result.put("bytesPerSecond", bytesPerOp * 1e9 / nanosPerOp);
+        }
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            result.put("allocatedBytesPerOp", (allocatedAfter - allocatedBefore) / ops);
+        }
+        final String json = toJson(result);
+        System.out.println(json);
+        results.add(json);
+    }
+
+    /**
+     * Writes the results measured so far, replacing those of an earlier run of the suite.
+     */
+    public void write() throws IOException {
+        final File directory = new File(System.getProperty("benchmark.outputDir", "build/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, suite + ".json")), StandardCharsets.UTF_8);
+        try {
+            for (String result : results) {
+                writer.write(result);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static Map<String, Object> params(Object... keysAndValues) {
+        final Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * Bytes allocated by the calling thread so far, or -1 if the JVM doesn't track them.
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String toJson(Object value) {
+        if (value instanceof Map) {
+            final StringBuilder json = new StringBuilder("{");
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append(toJson(entry.getKey())).append(':').append(toJson(entry.getValue()));
+            }
+            return json.append('}').toString();
+        }
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.3f", (Double) value);
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        final StringBuilder json = new StringBuilder("\"");
+        for (char c : String.valueOf(value).toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.AEADBadTagException;
+
+@RunWith(RobolectricTestRunner.class)
+public class StorageCipher18ImplementationTest {
+
+    private static final int THREADS = 8;
+    private static final int VALUES_PER_THREAD = 500;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final StorageCipher cipher = new StorageCipher18Implementation(context, TestKeyCiphers.plain());
+        for (int size : new int[]{0, 1, 15, 16, 17, 4096}) {
+            final byte[] value = new byte[size];
+            new Random(size).nextBytes(value);
+            assertArrayEquals(value, cipher.decrypt(cipher.encrypt(value)));
+        }
+    }
+
+    @Test
+    public void keepsKeyAcrossInstances() throws Exception {
+        final byte[] value = "value".getBytes("UTF-8");
+        final byte[] encrypted = new StorageCipher18Implementation(context, TestKeyCiphers.plain()).encrypt(value);
+        assertArrayEquals(value, new StorageCipher18Implementation(context, TestKeyCiphers.plain()).decrypt(encrypted));
+    }
+
+    @Test
+    public void loadsKeyOnFirstUse() throws Exception {
+        final KeyCipher plain = TestKeyCiphers.plain();
+        final AtomicInteger keyCipherCalls = new AtomicInteger();
+        final KeyCipher countingKeyCipher = new KeyCipher() {
+            @Override
+            public byte[] wrap(Key key) throws Exception {
+                keyCipherCalls.incrementAndGet();
+                return plain.wrap(key);
+            }
+
+            @Override
+            public Key unwrap(byte[] wrappedKey, String algorithm) throws Exception {
+                keyCipherCalls.incrementAndGet();
+                return plain.unwrap(wrappedKey, algorithm);
+            }
+        };
+
+        final StorageCipher cipher = new StorageCipher18Implementation(context, countingKeyCipher);
+        assertEquals(0, keyCipherCalls.get());
+
+        final byte[] value = "value".getBytes("UTF-8");
+        assertArrayEquals(value, cipher.decrypt(cipher.encrypt(value)));
+        assertEquals(1, keyCipherCalls.get());
+    }
+
+    @Test
+    public void keyBoundCipherAuthenticatesAssociatedData() throws Exception {
+        final StorageCipher cipher = new StorageCipherGCMKeyBoundImplementation(context, TestKeyCiphers.plain());
+        final byte[] value = "value".getBytes("UTF-8");
+        final byte[] encrypted = cipher.encrypt(value, "key".getBytes("UTF-8"));
+
+        assertTrue(cipher.supportsAssociatedData());
+        assertArrayEquals(value, cipher.decrypt(encrypted, "key".getBytes("UTF-8")));
+        try {
+            cipher.decrypt(encrypted, "other key".getBytes("UTF-8"));
+            fail("Decrypted a value for another key");
+        } catch (AEADBadTagException e) {
+            // Expected, the value is bound to its key.
+        }
+    }
+
+    @Test
+    public void otherCiphersIgnoreAssociatedData() throws Exception {
+        final StorageCipher cipher = new StorageCipherGCMImplementation(context, TestKeyCiphers.plain());
+        final byte[] value = "value".getBytes("UTF-8");
+
+        assertFalse(cipher.supportsAssociatedData());
+        assertArrayEquals(value, cipher.decrypt(cipher.encrypt(value, "key".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void concurrentEncryptAndDecrypt() throws Exception {
+        assertConcurrentRoundTrips(new StorageCipher18Implementation(context, TestKeyCiphers.plain()));
+    }
+
+    @Test
+    public void concurrentEncryptAndDecryptWithGCM() throws Exception {
+        assertConcurrentRoundTrips(new StorageCipherGCMImplementation(context, TestKeyCiphers.plain()));
+    }
+
+    /**
+     * Encrypts and decrypts from several threads at once, so the pooled Cipher instances are
+     * handed out concurrently. A Cipher shared by two threads corrupts the output of both.
+     */
+    private void assertConcurrentRoundTrips(final StorageCipher cipher) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final Random random = new Random(thread);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < VALUES_PER_THREAD; i++) {
+                        final byte[] value = new byte[random.nextInt(512)];
+                        random.nextBytes(value);
+                        assertArrayEquals(value, cipher.decrypt(cipher.encrypt(value)));
+                    }
+                    return VALUES_PER_THREAD;
+                }));
+            }
+            start.countDown();
+
+            int roundTrips = 0;
+            for (Future<Integer> result : results) {
+                roundTrips += result.get();
+            }
+            assertEquals(THREADS * VALUES_PER_THREAD, roundTrips);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
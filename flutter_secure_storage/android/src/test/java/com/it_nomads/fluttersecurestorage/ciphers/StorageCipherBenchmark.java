@@ -0,0 +1,65 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import static com.it_nomads.fluttersecurestorage.benchmark.Benchmark.params;
+
+import android.content.Context;
+
+import com.it_nomads.fluttersecurestorage.benchmark.Benchmark;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Encryption and decryption throughput of the storage ciphers for typical value sizes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StorageCipherBenchmark {
+
+    private static final int[] VALUE_SIZES = {16, 256, 4096, 65536};
+    // Bytes processed per measurement, so large values get fewer iterations.
+    private static final int BYTES_PER_MEASUREMENT = 4 * 1024 * 1024;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Benchmark.isEnabled());
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void encryptAndDecrypt() throws Exception {
+        final Map<String, StorageCipher> ciphers = new LinkedHashMap<>();
+        ciphers.put("AES_CBC_PKCS7Padding", new StorageCipher18Implementation(context, TestKeyCiphers.plain()));
+        ciphers.put("AES_GCM_NoPadding", new StorageCipherGCMImplementation(context, TestKeyCiphers.plain()));
+        ciphers.put("AES_GCM_NoPadding_KeyBound", new StorageCipherGCMKeyBoundImplementation(context, TestKeyCiphers.plain()));
+
+        final Benchmark benchmark = new Benchmark("StorageCipherBenchmark");
+        final Random random = new Random(42);
+        // Shaped like a preferences key, only authenticated by the ciphers that support associated data.
+        final byte[] associatedData = "VGhpcyBpcyB0aGUgcHJlZml4IGZvciBhIHNlY3VyZSBzdG9yYWdlCg_key".getBytes("UTF-8");
+        for (Map.Entry<String, StorageCipher> entry : ciphers.entrySet()) {
+            final StorageCipher cipher = entry.getValue();
+            for (int valueSize : VALUE_SIZES) {
+                final byte[] value = new byte[valueSize];
+                random.nextBytes(value);
+                final byte[] encrypted = cipher.encrypt(value, associatedData);
+                final int iterations = Math.max(200, Math.min(20000, BYTES_PER_MEASUREMENT / valueSize));
+
+                benchmark.measure("encrypt", params("cipher", entry.getKey(), "valueBytes", valueSize),
+                        iterations / 2, iterations, valueSize, 1, iteration -> cipher.encrypt(value, associatedData));
+                benchmark.measure("decrypt", params("cipher", entry.getKey(), "valueBytes", valueSize),
+                        iterations / 2, iterations, valueSize, 1, iteration -> cipher.decrypt(encrypted, associatedData));
+            }
+        }
+        benchmark.write();
+    }
+}
@@ -0,0 +1,36 @@
+package com.it_nomads.fluttersecurestorage.ciphers;
+
+import java.security.Key;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Key ciphers for tests. The Android Keystore isn't available on the JVM, so the AES keys are
+ * stored unwrapped.
+ */
+public final class TestKeyCiphers {
+
+    private TestKeyCiphers() {
+    }
+
+    public static KeyCipher plain() {
+        return new KeyCipher() {
+            @Override
+            public byte[] wrap(Key key) {
+                return key.getEncoded();
+            }
+
+            @Override
+            public Key unwrap(byte[] wrappedKey, String algorithm) {
+                return new SecretKeySpec(wrappedKey, algorithm);
+            }
+        };
+    }
+
+    /**
+     * Makes every {@link StorageCipherFactory} use {@link #plain()} key ciphers.
+     */
+    public static void install() {
+        StorageCipherFactory.setKeyCipher(plain());
+    }
+}
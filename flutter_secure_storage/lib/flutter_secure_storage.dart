@@ -1,12 +1,16 @@
 library flutter_secure_storage;
 
 import 'dart:io';
+import 'dart:typed_data';
 
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 import 'package:flutter_secure_storage/test/test_flutter_secure_storage_platform.dart';
 import 'package:flutter_secure_storage_platform_interface/flutter_secure_storage_platform_interface.dart';
 
+export 'package:flutter_secure_storage_platform_interface/flutter_secure_storage_platform_interface.dart'
+    show SecureStorageChange, SecureStorageChangeType, SecureStoragePage;
+
 part './options/android_options.dart';
 part './options/apple_options.dart';
 part './options/ios_options.dart';
@@ -235,6 +239,338 @@ class FlutterSecureStorage {
         ),
       );
 
+  /// Encrypts and saves all [values] with a single call. Existing values of
+  /// the keys are changed. Platforms without batch support write the values
+  /// one by one.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<void> writeBatch({
+    required Map<String, String> values,
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.writeBatch(
+        values: values,
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Decrypts and returns the values of [keys] with a single call. Keys that
+  /// are not in the storage are mapped to null.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<Map<String, String?>> readMany({
+    required List<String> keys,
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.readMany(
+        keys: keys,
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Deletes the values of [keys] with a single call.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<void> deleteMany({
+    required List<String> keys,
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.deleteMany(
+        keys: keys,
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Decrypts and returns the values of at most [limit] keys in key order,
+  /// starting after [cursor]. Pass the [SecureStoragePage.nextCursor] of a
+  /// page to read the next one until it is null. A full page may be followed
+  /// by an empty one.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<SecureStoragePage> readAllPage({
+    String? cursor,
+    required int limit,
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.readAllPage(
+        cursor: cursor,
+        limit: limit,
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Returns all keys without decrypting their values.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<List<String>> readKeys({
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.readKeys(
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Returns the number of keys without decrypting their values.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<int> countKeys({
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.countKeys(
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Creates the keys and migrates existing values for the given options in
+  /// the background, so the first read or write doesn't have to. Returns how
+  /// long each phase took in microseconds, e.g. for startup diagnostics.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<Map<String, int>> warmUp({
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.warmUp(
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Encrypts and saves the [key] with the given bytes, without converting
+  /// them to a string first where the platform supports it. Elsewhere they
+  /// are stored Base64 encoded, so [read] returns the Base64 string.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<void> writeBytes({
+    required String key,
+    required Uint8List value,
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.writeBytes(
+        key: key,
+        value: value,
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Decrypts and returns the bytes written with [writeBytes] for the given
+  /// [key], or null if [key] is not in the storage.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<Uint8List?> readBytes({
+    required String key,
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.readBytes(
+        key: key,
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// Returns the latency histograms per method, the failure counters and the
+  /// worker pool and value cache statistics collected since the app started.
+  /// Empty on platforms that don't collect metrics.
+  ///
+  /// Can throw a [PlatformException].
+  Future<Map<String, Object?>> getMetrics() => _platform.getMetrics();
+
+  /// Persists the writes and deletes that [AndroidOptions.writeBehindDelay]
+  /// still keeps in memory, e.g. before the app goes to the background.
+  ///
+  /// [iOptions] optional iOS options
+  /// [aOptions] optional Android options
+  /// [lOptions] optional Linux options
+  /// [webOptions] optional web options
+  /// [mOptions] optional MacOs options
+  /// [wOptions] optional Windows options
+  /// Can throw a [PlatformException].
+  Future<void> flush({
+    IOSOptions? iOptions,
+    AndroidOptions? aOptions,
+    LinuxOptions? lOptions,
+    WebOptions? webOptions,
+    MacOsOptions? mOptions,
+    WindowsOptions? wOptions,
+  }) =>
+      _platform.flush(
+        options: _selectOptions(
+          iOptions,
+          aOptions,
+          lOptions,
+          webOptions,
+          mOptions,
+          wOptions,
+        ),
+      );
+
+  /// The changes made through the plugin from now on, including the
+  /// preferences key prefix of every changed key.
+  ///
+  /// Only supported on Android.
+  Stream<SecureStorageChange> get changes => _platform.changes();
+
+  /// The changes of keys that start with [keyPrefix], with the written values
+  /// if [includeValues] is true. Every stream applies its own arguments, so
+  /// several of them can be listened to at once.
+  ///
+  /// Only supported on Android.
+  Stream<SecureStorageChange> watchChanges({
+    String? keyPrefix,
+    bool includeValues = false,
+  }) =>
+      _platform.changes(keyPrefix: keyPrefix, includeValues: includeValues);
+
   /// Select correct options based on current platform
   Map<String, String> _selectOptions(
     IOSOptions? iOptions,
@@ -3,11 +3,41 @@ part of '../flutter_secure_storage.dart';
 enum KeyCipherAlgorithm {
   RSA_ECB_PKCS1Padding,
   RSA_ECB_OAEPwithSHA_256andMGF1Padding,
+
+  /// Wraps the secret key with an AES/GCM key kept in the Android Keystore.
+  /// Much faster to create and to use than an RSA key pair.
+  AES_GCM_NoPadding,
 }
 
 enum StorageCipherAlgorithm {
   AES_CBC_PKCS7Padding,
   AES_GCM_NoPadding,
+
+  /// AES/GCM/NoPadding that also authenticates the key a value is stored
+  /// under, so a value copied to another key can't be decrypted.
+  AES_GCM_NoPadding_KeyBound,
+
+  /// Like [AES_GCM_NoPadding_KeyBound], with the AES key kept inside the
+  /// Android Keystore instead of being wrapped by the key cipher. Avoids the
+  /// RSA key pair and unwrap on startup, every value is encrypted and
+  /// decrypted by the Keystore.
+  AES_GCM_NoPadding_Keystore,
+}
+
+enum StorageBackend {
+  /// Values are kept in a SharedPreferences XML file, which is rewritten
+  /// completely on every change.
+  sharedPreferences,
+
+  /// Values are appended to a log file, so a change only writes the changed
+  /// entries. Entries of an existing SharedPreferences file are moved into
+  /// the log the first time it is opened.
+  appendLog,
+
+  /// The same log as [appendLog], with values read through a memory mapping
+  /// of the file. Suited for stores with thousands of entries, a read only
+  /// touches the record of the requested key.
+  mappedLog,
 }
 
 class AndroidOptions extends Options {
@@ -20,6 +50,14 @@ class AndroidOptions extends Options {
         StorageCipherAlgorithm.AES_CBC_PKCS7Padding,
     this.sharedPreferencesName,
     this.preferencesKeyPrefix,
+    this.valueCacheSize = 0,
+    this.valueCacheTtl,
+    this.storageBackend = StorageBackend.sharedPreferences,
+    this.replyOnBackgroundThread = false,
+    this.writeBehindDelay,
+    this.writeBehindMaxPending = 16,
+    this.shardCount = 1,
+    this.workerPoolSize,
   })  : _encryptedSharedPreferences = encryptedSharedPreferences,
         _resetOnError = resetOnError,
         _keyCipherAlgorithm = keyCipherAlgorithm,
@@ -38,14 +76,16 @@ class AndroidOptions extends Options {
   /// If EncryptedSharedPrefences is set to false, you can select algorithm
   /// that will be used to encrypt secret key.
   /// By default RSA/ECB/PKCS1Padding if used.
-  /// Newer RSA/ECB/OAEPWithSHA-256AndMGF1Padding is available from Android 6.
+  /// Newer RSA/ECB/OAEPWithSHA-256AndMGF1Padding and AES/GCM/NoPadding are
+  /// available from Android 6. Existing values are re-encrypted when the
+  /// algorithm changes.
   /// Plugin will fall back to default algorithm in previous system versions.
   final KeyCipherAlgorithm _keyCipherAlgorithm;
 
   /// If EncryptedSharedPrefences is set to false, you can select algorithm
   /// that will be used to encrypt properties.
   /// By default AES/CBC/PKCS7Padding if used.
-  /// Newer AES/GCM/NoPadding is available from Android 6.
+  /// Newer AES/GCM/NoPadding and its variants are available from Android 6.
   /// Plugin will fall back to default algorithm in previous system versions.
   final StorageCipherAlgorithm _storageCipherAlgorithm;
 
@@ -63,6 +103,82 @@ class AndroidOptions extends Options {
   /// WARNING: If you change this you can't retrieve already saved preferences.
   final String? preferencesKeyPrefix;
 
+  /// The number of decrypted values kept in memory so that repeated reads of
+  /// the same key skip decryption. Writes and deletes always invalidate the
+  /// cached values, and the cache is cleared when the system is low on memory.
+  ///
+  /// Defaults to 0, which disables the cache.
+  final int valueCacheSize;
+
+  /// How long a decrypted value may be served from the in-memory cache.
+  /// Values only leave the cache when evicted if this is not set.
+  final Duration? valueCacheTtl;
+
+  /// Where the encrypted values are persisted.
+  ///
+  /// Ignored with encryptedSharedPreferences, which always stores its values
+  /// and keys in the SharedPreferences file. Values written to a log by
+  /// options without encryptedSharedPreferences are therefore not migrated
+  /// to it. A SharedPreferences file that holds encryptedSharedPreferences
+  /// data is never imported into a log, the log starts empty instead.
+  ///
+  /// WARNING: Switching back to [StorageBackend.sharedPreferences] after
+  /// values were written to [StorageBackend.appendLog] or
+  /// [StorageBackend.mappedLog] doesn't move them back. Both log backends
+  /// share the same file and can be switched freely.
+  ///
+  /// Defaults to [StorageBackend.sharedPreferences].
+  final StorageBackend storageBackend;
+
+  /// Sends the result of a call from the background thread that ran it
+  /// instead of switching to the Android main thread first. Only has an
+  /// effect on Flutter versions that support background task queues.
+  ///
+  /// Defaults to false.
+  final bool replyOnBackgroundThread;
+
+  /// Keeps encrypted writes and deletes in memory for up to this long and
+  /// persists them together with a single file write. Reads always see the
+  /// pending changes. Pending changes are persisted when the plugin is
+  /// detached from the engine, but are lost if the process is killed before.
+  /// Has no effect with encryptedSharedPreferences.
+  ///
+  /// Defaults to null, which persists every change right away.
+  final Duration? writeBehindDelay;
+
+  /// The number of pending changes that are persisted right away, without
+  /// waiting for [writeBehindDelay].
+  ///
+  /// Defaults to 16.
+  final int writeBehindMaxPending;
+
+  /// Spreads the values over this many files named after
+  /// [sharedPreferencesName], so a write only rewrites the file that holds
+  /// the written key. Existing values are moved to their file the first time
+  /// the store is opened with a different count, and 1 moves them back into
+  /// a single file.
+  ///
+  /// Ignored with encryptedSharedPreferences, which needs all of its data in
+  /// a single file. The file is opened as if the count was 1, so values
+  /// sharded by other options are moved back into it. A file that holds
+  /// encryptedSharedPreferences data is never split, not even by options
+  /// without encryptedSharedPreferences.
+  ///
+  /// WARNING: All options that use the same [sharedPreferencesName] must use
+  /// the same count. Once the file is open, calls with a different count fail
+  /// until the app is restarted.
+  ///
+  /// Defaults to 1.
+  final int shardCount;
+
+  /// The maximum number of calls that run in parallel on background threads.
+  /// Calls on the same key always run in order. The pool is shared by all
+  /// options, so the count of the most recent call that sets it applies.
+  ///
+  /// Defaults to null, which keeps the current size. The plugin starts with
+  /// one thread per processor core, at least 2 and at most 4.
+  final int? workerPoolSize;
+
   static const AndroidOptions defaultOptions = AndroidOptions();
 
   @override
@@ -73,6 +189,14 @@ class AndroidOptions extends Options {
         'storageCipherAlgorithm': describeEnum(_storageCipherAlgorithm),
         'sharedPreferencesName': sharedPreferencesName ?? '',
         'preferencesKeyPrefix': preferencesKeyPrefix ?? '',
+        'valueCacheSize': '$valueCacheSize',
+        'valueCacheTtlMillis': '${valueCacheTtl?.inMilliseconds ?? 0}',
+        'storageBackend': describeEnum(storageBackend),
+        'replyOnBackgroundThread': '$replyOnBackgroundThread',
+        'writeBehindMillis': '${writeBehindDelay?.inMilliseconds ?? 0}',
+        'writeBehindMaxPending': '$writeBehindMaxPending',
+        'shardCount': '$shardCount',
+        'workerPoolSize': '${workerPoolSize ?? 0}',
       };
 
   AndroidOptions copyWith({
@@ -82,6 +206,14 @@ class AndroidOptions extends Options {
     StorageCipherAlgorithm? storageCipherAlgorithm,
     String? preferencesKeyPrefix,
     String? sharedPreferencesName,
+    int? valueCacheSize,
+    Duration? valueCacheTtl,
+    StorageBackend? storageBackend,
+    bool? replyOnBackgroundThread,
+    Duration? writeBehindDelay,
+    int? writeBehindMaxPending,
+    int? shardCount,
+    int? workerPoolSize,
   }) =>
       AndroidOptions(
         encryptedSharedPreferences:
@@ -92,5 +224,15 @@ class AndroidOptions extends Options {
             storageCipherAlgorithm ?? _storageCipherAlgorithm,
         sharedPreferencesName: sharedPreferencesName,
         preferencesKeyPrefix: preferencesKeyPrefix,
+        valueCacheSize: valueCacheSize ?? this.valueCacheSize,
+        valueCacheTtl: valueCacheTtl ?? this.valueCacheTtl,
+        storageBackend: storageBackend ?? this.storageBackend,
+        replyOnBackgroundThread:
+            replyOnBackgroundThread ?? this.replyOnBackgroundThread,
+        writeBehindDelay: writeBehindDelay ?? this.writeBehindDelay,
+        writeBehindMaxPending:
+            writeBehindMaxPending ?? this.writeBehindMaxPending,
+        shardCount: shardCount ?? this.shardCount,
+        workerPoolSize: workerPoolSize ?? this.workerPoolSize,
       );
 }
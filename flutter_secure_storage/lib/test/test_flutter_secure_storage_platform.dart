@@ -1,7 +1,11 @@
+import 'dart:async';
+
 import 'package:flutter_secure_storage_platform_interface/flutter_secure_storage_platform_interface.dart';
 
 class TestFlutterSecureStoragePlatform extends FlutterSecureStoragePlatform {
   final Map<String, String> data;
+  final StreamController<SecureStorageChange> _changes =
+      StreamController.broadcast(sync: true);
 
   TestFlutterSecureStoragePlatform(this.data);
 
@@ -16,12 +20,20 @@ class TestFlutterSecureStoragePlatform extends FlutterSecureStoragePlatform {
   Future<void> delete({
     required String key,
     required Map<String, String> options,
-  }) async =>
-      data.remove(key);
+  }) async {
+    data.remove(key);
+    _changes.add(
+      SecureStorageChange(type: SecureStorageChangeType.delete, key: key),
+    );
+  }
 
   @override
-  Future<void> deleteAll({required Map<String, String> options}) async =>
-      data.clear();
+  Future<void> deleteAll({required Map<String, String> options}) async {
+    data.clear();
+    _changes.add(
+      const SecureStorageChange(type: SecureStorageChangeType.deleteAll),
+    );
+  }
 
   @override
   Future<String?> read({
@@ -41,6 +53,23 @@ class TestFlutterSecureStoragePlatform extends FlutterSecureStoragePlatform {
     required String key,
     required String value,
     required Map<String, String> options,
-  }) async =>
-      data[key] = value;
+  }) async {
+    data[key] = value;
+    _changes.add(
+      SecureStorageChange(
+        type: SecureStorageChangeType.write,
+        key: key,
+        value: value,
+      ),
+    );
+  }
+
+  @override
+  Stream<SecureStorageChange> changes({
+    String? keyPrefix,
+    bool includeValues = false,
+  }) =>
+      _changes.stream
+          .where((change) => change.hasKeyPrefix(keyPrefix))
+          .map((change) => includeValues ? change : change.withoutValue());
 }
@@ -1,11 +1,16 @@
 library flutter_secure_storage_platform_interface;
 
+import 'dart:convert';
+import 'dart:typed_data';
+
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 
 part './src/method_channel_flutter_secure_storage.dart';
 part './src/options.dart';
+part './src/secure_storage_change.dart';
+part './src/secure_storage_page.dart';
 
 /// The interface that implementations of flutter_secure_storage must implement.
 ///
@@ -57,4 +62,121 @@ abstract class FlutterSecureStoragePlatform extends PlatformInterface {
   Future<void> deleteAll({
     required Map<String, String> options,
   });
+
+  /// Writes all [values] at once. Platforms without a native batch write them
+  /// one by one.
+  Future<void> writeBatch({
+    required Map<String, String> values,
+    required Map<String, String> options,
+  }) async {
+    for (final entry in values.entries) {
+      await write(key: entry.key, value: entry.value, options: options);
+    }
+  }
+
+  /// Reads the values of [keys], mapping missing keys to null.
+  Future<Map<String, String?>> readMany({
+    required List<String> keys,
+    required Map<String, String> options,
+  }) async {
+    final values = <String, String?>{};
+    for (final key in keys) {
+      values[key] = await read(key: key, options: options);
+    }
+    return values;
+  }
+
+  /// Deletes the values of [keys].
+  Future<void> deleteMany({
+    required List<String> keys,
+    required Map<String, String> options,
+  }) async {
+    for (final key in keys) {
+      await delete(key: key, options: options);
+    }
+  }
+
+  /// Reads the values of at most [limit] keys in key order, starting after
+  /// [cursor], so that large stores can be loaded page by page. Platforms
+  /// without native paging read all values and return a slice of them.
+  Future<SecureStoragePage> readAllPage({
+    String? cursor,
+    required int limit,
+    required Map<String, String> options,
+  }) async {
+    final all = await readAll(options: options);
+    final keys = all.keys
+        .where((key) => cursor == null || key.compareTo(cursor) > 0)
+        .toList()
+      ..sort();
+    final values = <String, String>{
+      for (final key in keys.take(limit)) key: all[key]!,
+    };
+    return SecureStoragePage(
+      values: values,
+      nextCursor:
+          keys.length > limit && values.isNotEmpty ? values.keys.last : null,
+    );
+  }
+
+  /// Lists the keys without reading their values where the platform can.
+  Future<List<String>> readKeys({
+    required Map<String, String> options,
+  }) async =>
+      (await readAll(options: options)).keys.toList();
+
+  /// Counts the keys without reading their values where the platform can.
+  Future<int> countKeys({
+    required Map<String, String> options,
+  }) async =>
+      (await readKeys(options: options)).length;
+
+  /// Prepares the storage for [options] ahead of the first real call and
+  /// returns how long each preparation phase took in microseconds. Platforms
+  /// with nothing to prepare return an empty map.
+  Future<Map<String, int>> warmUp({
+    required Map<String, String> options,
+  }) async =>
+      <String, int>{};
+
+  /// Writes [value] without converting it to a string. Platforms without
+  /// native byte values store it Base64 encoded with [write].
+  Future<void> writeBytes({
+    required String key,
+    required Uint8List value,
+    required Map<String, String> options,
+  }) =>
+      write(key: key, value: base64Encode(value), options: options);
+
+  /// Reads a value written with [writeBytes], or null if [key] is not in the
+  /// storage.
+  Future<Uint8List?> readBytes({
+    required String key,
+    required Map<String, String> options,
+  }) async {
+    final value = await read(key: key, options: options);
+    return value == null ? null : base64Decode(value);
+  }
+
+  /// Returns the call latencies, failure counters and worker statistics the
+  /// platform collected since it started. Platforms without metrics return an
+  /// empty map.
+  Future<Map<String, Object?>> getMetrics() async => <String, Object?>{};
+
+  /// Persists the changes the platform still keeps in memory. Platforms that
+  /// persist every change right away have nothing to do.
+  Future<void> flush({
+    required Map<String, String> options,
+  }) async {}
+
+  /// The changes made through the plugin from now on.
+  ///
+  /// Only changes of keys that start with [keyPrefix] are delivered, except
+  /// for [SecureStorageChangeType.deleteAll]. Written values are only included
+  /// if [includeValues] is true.
+  Stream<SecureStorageChange> changes({
+    String? keyPrefix,
+    bool includeValues = false,
+  }) =>
+      throw UnimplementedError('changes() has not been implemented.');
 }
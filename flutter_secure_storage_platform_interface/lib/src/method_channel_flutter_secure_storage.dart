@@ -2,6 +2,8 @@ part of '../flutter_secure_storage_platform_interface.dart';
 
 const MethodChannel _channel =
     MethodChannel('plugins.it_nomads.com/flutter_secure_storage');
+const EventChannel _changesChannel =
+    EventChannel('plugins.it_nomads.com/flutter_secure_storage/changes');
 
 class MethodChannelFlutterSecureStorage extends FlutterSecureStoragePlatform {
   @override
@@ -79,4 +81,197 @@ class MethodChannelFlutterSecureStorage extends FlutterSecureStoragePlatform {
         'value': value,
         'options': options,
       });
+
+  @override
+  Future<void> writeBatch({
+    required Map<String, String> values,
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () => _channel.invokeMethod<void>('writeBatch', {
+          'values': values,
+          'options': options,
+        }),
+        () => super.writeBatch(values: values, options: options),
+      );
+
+  @override
+  Future<Map<String, String?>> readMany({
+    required List<String> keys,
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () async {
+          final results = await _channel.invokeMethod<Map>('readMany', {
+            'keys': keys,
+            'options': options,
+          });
+          return results?.cast<String, String?>() ?? <String, String?>{};
+        },
+        () => super.readMany(keys: keys, options: options),
+      );
+
+  @override
+  Future<void> deleteMany({
+    required List<String> keys,
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () => _channel.invokeMethod<void>('deleteMany', {
+          'keys': keys,
+          'options': options,
+        }),
+        () => super.deleteMany(keys: keys, options: options),
+      );
+
+  @override
+  Future<SecureStoragePage> readAllPage({
+    String? cursor,
+    required int limit,
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () async {
+          final page = await _channel.invokeMethod<Map>('readAllPage', {
+            'cursor': cursor,
+            'limit': limit,
+            'options': options,
+          });
+          return SecureStoragePage(
+            values: (page?['values'] as Map?)?.cast<String, String>() ??
+                <String, String>{},
+            nextCursor: page?['nextCursor'] as String?,
+          );
+        },
+        () => super.readAllPage(
+          cursor: cursor,
+          limit: limit,
+          options: options,
+        ),
+      );
+
+  @override
+  Future<List<String>> readKeys({
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () async {
+          final keys = await _channel.invokeMethod<List>('readKeys', {
+            'options': options,
+          });
+          return keys?.cast<String>() ?? <String>[];
+        },
+        () => super.readKeys(options: options),
+      );
+
+  @override
+  Future<int> countKeys({
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () async =>
+            (await _channel.invokeMethod<int>('countKeys', {
+              'options': options,
+            })) ??
+            0,
+        () => super.countKeys(options: options),
+      );
+
+  @override
+  Future<Map<String, int>> warmUp({
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () async {
+          final timings = await _channel.invokeMethod<Map>('warmUp', {
+            'options': options,
+          });
+          return timings?.cast<String, int>() ?? <String, int>{};
+        },
+        () => super.warmUp(options: options),
+      );
+
+  @override
+  Future<void> writeBytes({
+    required String key,
+    required Uint8List value,
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () => _channel.invokeMethod<void>('writeBytes', {
+          'key': key,
+          'value': value,
+          'options': options,
+        }),
+        () => super.writeBytes(key: key, value: value, options: options),
+      );
+
+  @override
+  Future<Uint8List?> readBytes({
+    required String key,
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () => _channel.invokeMethod<Uint8List>('readBytes', {
+          'key': key,
+          'options': options,
+        }),
+        () => super.readBytes(key: key, options: options),
+      );
+
+  @override
+  Future<Map<String, Object?>> getMetrics() => _invokeWithFallback(
+        () async {
+          final metrics = await _channel.invokeMethod<Map>('getMetrics');
+          return metrics?.cast<String, Object?>() ?? <String, Object?>{};
+        },
+        () => super.getMetrics(),
+      );
+
+  @override
+  Future<void> flush({
+    required Map<String, String> options,
+  }) =>
+      _invokeWithFallback(
+        () => _channel.invokeMethod<void>('flush', {
+          'options': options,
+        }),
+        () => super.flush(options: options),
+      );
+
+  /// Runs [call], or [fallback] if the native side of the platform doesn't
+  /// implement the method.
+  Future<T> _invokeWithFallback<T>(
+    Future<T> Function() call,
+    Future<T> Function() fallback,
+  ) async {
+    try {
+      return await call();
+    } on MissingPluginException {
+      return fallback();
+    }
+  }
+
+  /// The native side has a single stream per engine, so every listener shares
+  /// this one and filters it by itself. It's only listened to natively while
+  /// at least one listener is subscribed.
+  late final Stream<SecureStorageChange> _changes =
+      _changesChannel.receiveBroadcastStream().expand(
+            (batch) => (batch as List).map(
+              (event) => SecureStorageChange.fromMap(
+                (event as Map).cast<String, Object?>(),
+              ),
+            ),
+          );
+
+  /// Changes arrive in batches, e.g. one per bulk operation, and are
+  /// delivered one by one.
+  @override
+  Stream<SecureStorageChange> changes({
+    String? keyPrefix,
+    bool includeValues = false,
+  }) =>
+      _changes
+          .where((change) => change.hasKeyPrefix(keyPrefix))
+          .map((change) => includeValues ? change : change.withoutValue());
 }
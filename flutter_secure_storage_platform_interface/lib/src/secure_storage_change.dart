@@ -0,0 +1,70 @@
+part of '../flutter_secure_storage_platform_interface.dart';
+
+enum SecureStorageChangeType {
+  write,
+  delete,
+  deleteAll,
+}
+
+/// A change made through the plugin, see
+/// [FlutterSecureStoragePlatform.changes].
+class SecureStorageChange {
+  const SecureStorageChange({
+    required this.type,
+    this.sharedPreferencesName,
+    this.preferencesKeyPrefix,
+    this.key,
+    this.value,
+  });
+
+  factory SecureStorageChange.fromMap(Map<String, Object?> map) {
+    final type = map['type'];
+    return SecureStorageChange(
+      type: SecureStorageChangeType.values.firstWhere(
+        (value) => describeEnum(value) == type,
+        orElse: () => throw ArgumentError.value(type, 'type'),
+      ),
+      sharedPreferencesName: map['sharedPreferencesName'] as String?,
+      preferencesKeyPrefix: map['preferencesKeyPrefix'] as String?,
+      key: map['key'] as String?,
+      value: map['value'],
+    );
+  }
+
+  final SecureStorageChangeType type;
+
+  /// The file that was changed.
+  final String? sharedPreferencesName;
+
+  /// The prefix the changed key is stored under, so changes of different
+  /// stores that share a file can be told apart.
+  final String? preferencesKeyPrefix;
+
+  /// The changed key without [preferencesKeyPrefix], null for
+  /// [SecureStorageChangeType.deleteAll].
+  final String? key;
+
+  /// The written value, a [String] or the Uint8List of a byte value. Only set
+  /// for writes if the values were requested.
+  final Object? value;
+
+  /// Whether the changed key starts with [keyPrefix]. A
+  /// [SecureStorageChangeType.deleteAll] affects every key, so it always does.
+  bool hasKeyPrefix(String? keyPrefix) =>
+      keyPrefix == null || key == null || key!.startsWith(keyPrefix);
+
+  /// This change without the written [value].
+  SecureStorageChange withoutValue() => value == null
+      ? this
+      : SecureStorageChange(
+          type: type,
+          sharedPreferencesName: sharedPreferencesName,
+          preferencesKeyPrefix: preferencesKeyPrefix,
+          key: key,
+        );
+
+  @override
+  String toString() =>
+      'SecureStorageChange(${describeEnum(type)}, $sharedPreferencesName, '
+      '$preferencesKeyPrefix, $key)';
+}
@@ -0,0 +1,12 @@
+part of '../flutter_secure_storage_platform_interface.dart';
+
+/// A page of values, see [FlutterSecureStoragePlatform.readAllPage].
+class SecureStoragePage {
+  const SecureStoragePage({required this.values, this.nextCursor});
+
+  /// The values by key, in key order.
+  final Map<String, String> values;
+
+  /// The cursor of the next page, null if there are no more values.
+  final String? nextCursor;
+}
@@ -1,3 +1,5 @@
+import 'dart:typed_data';
+
 import 'package:flutter/services.dart';
 import 'package:flutter_secure_storage_platform_interface/flutter_secure_storage_platform_interface.dart';
 import 'package:flutter_test/flutter_test.dart';
@@ -41,13 +43,26 @@ void main() {
         MethodChannel('plugins.it_nomads.com/flutter_secure_storage');
 
     final log = <MethodCall>[];
+    final unimplementedMethods = <String>{};
 
-    Future<bool?>? handler(MethodCall methodCall) async {
+    Future<Object?>? handler(MethodCall methodCall) async {
       log.add(methodCall);
 
       if (methodCall.method == 'containsKey') {
         return true;
       }
+      if (unimplementedMethods.contains(methodCall.method)) {
+        throw MissingPluginException();
+      }
+      if (methodCall.method == 'readAll') {
+        return <String, String>{'c': '3', 'a': '1', 'b': '2'};
+      }
+      if (methodCall.method == 'readAllPage') {
+        return <String, Object?>{
+          'values': <String, String>{'a': '1', 'b': '2'},
+          'nextCursor': 'b',
+        };
+      }
 
       return null;
     }
@@ -61,6 +76,7 @@ void main() {
 
     tearDown(() {
       log.clear();
+      unimplementedMethods.clear();
     });
 
     test('read', () async {
@@ -145,6 +161,247 @@ void main() {
       );
     });
 
+    test('writeBatch', () async {
+      await storage.writeBatch(values: {key: 'test'}, options: options);
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'writeBatch',
+            arguments: <String, Object>{
+              'values': {key: 'test'},
+              'options': options,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('writeBatch falls back to write', () async {
+      unimplementedMethods.add('writeBatch');
+
+      await storage.writeBatch(values: {key: 'test'}, options: options);
+
+      expect(log.map((call) => call.method), <String>['writeBatch', 'write']);
+    });
+
+    test('readMany falls back to read', () async {
+      unimplementedMethods.add('readMany');
+
+      final values = await storage.readMany(keys: [key], options: options);
+
+      expect(values, <String, String?>{key: null});
+      expect(log.map((call) => call.method), <String>['readMany', 'read']);
+    });
+
+    test('deleteMany', () async {
+      await storage.deleteMany(keys: [key], options: options);
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'deleteMany',
+            arguments: <String, Object>{
+              'keys': [key],
+              'options': options,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('readAllPage', () async {
+      final page = await storage.readAllPage(limit: 2, options: options);
+
+      expect(page.values, <String, String>{'a': '1', 'b': '2'});
+      expect(page.nextCursor, 'b');
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'readAllPage',
+            arguments: <String, Object?>{
+              'cursor': null,
+              'limit': 2,
+              'options': options,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('readAllPage falls back to readAll', () async {
+      unimplementedMethods.add('readAllPage');
+
+      final first = await storage.readAllPage(limit: 2, options: options);
+      final last = await storage.readAllPage(
+        cursor: first.nextCursor,
+        limit: 2,
+        options: options,
+      );
+
+      expect(first.values.keys, <String>['a', 'b']);
+      expect(first.nextCursor, 'b');
+      expect(last.values, <String, String>{'c': '3'});
+      expect(last.nextCursor, isNull);
+    });
+
+    test('readKeys', () async {
+      await storage.readKeys(options: options);
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'readKeys',
+            arguments: <String, Object>{
+              'options': options,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('countKeys falls back to readAll', () async {
+      unimplementedMethods.addAll(['countKeys', 'readKeys']);
+
+      expect(await storage.countKeys(options: options), 3);
+      expect(
+        log.map((call) => call.method),
+        <String>['countKeys', 'readKeys', 'readAll'],
+      );
+    });
+
+    test('warmUp falls back to nothing', () async {
+      unimplementedMethods.add('warmUp');
+
+      expect(await storage.warmUp(options: options), isEmpty);
+      expect(log.map((call) => call.method), <String>['warmUp']);
+    });
+
+    test('writeBytes', () async {
+      final value = Uint8List.fromList([0, 1, 255]);
+
+      await storage.writeBytes(key: key, value: value, options: options);
+
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'writeBytes',
+            arguments: <String, Object>{
+              'key': key,
+              'value': value,
+              'options': options,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('writeBytes falls back to Base64', () async {
+      unimplementedMethods.add('writeBytes');
+
+      await storage.writeBytes(
+        key: key,
+        value: Uint8List.fromList([0, 1, 255]),
+        options: options,
+      );
+
+      expect(log.last.method, 'write');
+      expect((log.last.arguments as Map)['value'], 'AAH/');
+    });
+
+    test('getMetrics', () async {
+      await storage.getMetrics();
+      expect(log, <Matcher>[isMethodCall('getMetrics', arguments: null)]);
+    });
+
+    test('flush', () async {
+      await storage.flush(options: options);
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'flush',
+            arguments: <String, Object>{
+              'options': options,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('change events', () {
+      final change = SecureStorageChange.fromMap(<String, Object?>{
+        'type': 'write',
+        'sharedPreferencesName': 'FlutterSecureStorage',
+        'preferencesKeyPrefix': 'prefix',
+        'key': key,
+        'value': 'test',
+      });
+
+      expect(change.type, SecureStorageChangeType.write);
+      expect(change.sharedPreferencesName, 'FlutterSecureStorage');
+      expect(change.preferencesKeyPrefix, 'prefix');
+      expect(change.key, key);
+      expect(change.value, 'test');
+      expect(
+        SecureStorageChange.fromMap(<String, Object?>{'type': 'deleteAll'}).key,
+        isNull,
+      );
+    });
+
+    test('changes of concurrent listeners', () async {
+      const changesChannel =
+          EventChannel('plugins.it_nomads.com/flutter_secure_storage/changes');
+      final messenger =
+          TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger;
+      var listens = 0;
+      var cancels = 0;
+      late MockStreamHandlerEventSink events;
+      messenger.setMockStreamHandler(
+        changesChannel,
+        MockStreamHandler.inline(
+          onListen: (arguments, sink) {
+            listens++;
+            events = sink;
+          },
+          onCancel: (arguments) => cancels++,
+        ),
+      );
+      addTearDown(() => messenger.setMockStreamHandler(changesChannel, null));
+
+      final all = <SecureStorageChange>[];
+      final prefixed = <SecureStorageChange>[];
+      final allSubscription =
+          storage.changes(includeValues: true).listen(all.add);
+      final prefixedSubscription =
+          storage.changes(keyPrefix: 'a').listen(prefixed.add);
+      await Future<void>.delayed(Duration.zero);
+
+      events.success(<Object?>[
+        <String, Object?>{'type': 'write', 'key': 'a1', 'value': '1'},
+        <String, Object?>{'type': 'write', 'key': 'b1', 'value': '2'},
+      ]);
+      await Future<void>.delayed(Duration.zero);
+      await prefixedSubscription.cancel();
+
+      // The remaining listener keeps receiving changes.
+      events.success(<Object?>[
+        <String, Object?>{'type': 'delete', 'key': 'a1'},
+      ]);
+      await Future<void>.delayed(Duration.zero);
+      await allSubscription.cancel();
+      await Future<void>.delayed(Duration.zero);
+
+      expect(listens, 1);
+      expect(cancels, 1);
+      expect(all.map((change) => change.key), <String>['a1', 'b1', 'a1']);
+      expect(all.first.value, '1');
+      expect(prefixed.map((change) => change.key), <String>['a1']);
+      expect(prefixed.single.value, isNull);
+    });
+
     test('readAll', () async {
       await storage.write(key: key, value: 'test', options: options);
 